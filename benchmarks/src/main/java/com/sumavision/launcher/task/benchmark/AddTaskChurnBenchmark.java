@@ -0,0 +1,93 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.ScheduledExecutorFactory;
+import com.sumavision.launcher.task.support.TaskContainer;
+import com.sumavision.launcher.task.support.TaskScheduling;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：替换为主的addTask，相同任务反复以新的执行时间提交<p/>
+ * <p>任务都在一天之后执行，测试的是替换与头任务变化时重新注册唤醒的开销<p/>
+ * @author chen qi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class AddTaskChurnBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"head", "batch", "parked"})
+    public String dispatch;
+
+    private ScheduledExecutorFactory factory;
+    private TaskScheduling scheduling;
+    private Method method;
+    private Callbacks target;
+    private Object[][] args;
+    private long base;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        factory = new ScheduledExecutorFactory();
+        factory.setPoolSize(1);
+        factory.afterPropertiesSet();
+        scheduling = new TaskScheduling(new TaskContainer(size), factory);
+        Dispatch.apply(scheduling, dispatch);
+        method = Callbacks.method("noop");
+        target = new Callbacks();
+        args = new Object[size][];
+        base = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        SplittableRandom random = new SplittableRandom(42);
+        for(int i = 0; i < size; ++i){
+            args[i] = new Object[]{i};
+            scheduling.addTask(new Date(base + random.nextInt(size * 4)), method, target, args[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduling.destroy();
+        factory.destroy();
+    }
+
+    /**
+     * 每个线程按不同的步长遍历任务，多线程时同一时刻替换的多是不同任务
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom();
+        private int key;
+
+        int next(int size) {
+            key += 7919;
+            if(key >= size){
+                key -= size;
+            }
+            return key;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addTask(Cursor cursor) {
+        int key = cursor.next(size);
+        scheduling.addTask(new Date(base + cursor.random.nextInt(size * 4)), method, target, args[key]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addTaskContended(Cursor cursor) {
+        int key = cursor.next(size);
+        scheduling.addTask(new Date(base + cursor.random.nextInt(size * 4)), method, target, args[key]);
+    }
+}
@@ -0,0 +1,59 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.Recurrence;
+import com.sumavision.launcher.task.support.ScheduledExecutorTask;
+import com.sumavision.launcher.task.support.TaskContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：周期任务执行路径的分配：取出到期任务、执行回调、重新放回容器<p/>
+ * <p>使用-prof gc运行，gc.alloc.rate.norm为每个任务执行一次分配的字节数，稳定状态应接近0：
+ * <pre>java -jar benchmarks/target/benchmarks.jar AllocationBenchmark -prof gc</pre>
+ * @author chen qi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllocationBenchmark {
+    private static final int TASKS = 1000;
+    /**每轮推进的时间，大于周期使所有任务到期*/
+    private static final long STEP = 10L;
+
+    private TaskContainer container;
+    private final List<ScheduledExecutorTask> sink = new ArrayList<>(TASKS * 2);
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = new TaskContainer(TASKS);
+        Method method = Callbacks.method("count");
+        Callbacks target = new Callbacks();
+        now = System.currentTimeMillis();
+        Recurrence recurrence = Recurrence.fixedRate(1, TimeUnit.MILLISECONDS);
+        for(int i = 0; i < TASKS; ++i){
+            container.put(new Date(now), method, target, new Object[]{i}, recurrence);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public int fireRecurring() {
+        //时间按步长推进，不受实际时钟影响，每轮都取出所有任务
+        now += STEP;
+        int count = container.drainExpired(now, sink);
+        for(int i = 0; i < count; ++i){
+            sink.get(i).getRunnable().run();
+        }
+        sink.clear();
+        return count;
+    }
+}
@@ -0,0 +1,44 @@
+package com.sumavision.launcher.task.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>功能描述：基准测试使用的回调对象<p/>
+ * @author chen qi
+ */
+public class Callbacks {
+    /**回调次数*/
+    public final LongAdder fired = new LongAdder();
+    /**每批任务全部执行后计数到0*/
+    public volatile CountDownLatch latch;
+
+    public void noop(Integer key) {
+    }
+
+    public static void staticNoop(Integer key) {
+    }
+
+    public void varargs(Integer... keys) {
+    }
+
+    public void count(Integer key) {
+        fired.increment();
+        CountDownLatch current = latch;
+        if(current != null){
+            current.countDown();
+        }
+    }
+
+    public static Method method(String name) {
+        try {
+            if("varargs".equals(name)){
+                return Callbacks.class.getMethod(name, Integer[].class);
+            }
+            return Callbacks.class.getMethod(name, Integer.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.cluster.PartitionedTaskScheduling;
+import com.sumavision.launcher.task.persistence.TaskTargetResolver;
+import com.sumavision.launcher.task.support.ScheduledExecutorFactory;
+import com.sumavision.launcher.task.support.TaskContainer;
+import com.sumavision.launcher.task.support.TaskScheduling;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>功能描述：ClusterThroughput启动的集群节点进程，从标准输入读取命令，结果逐行写到标准输出<p/>
+ * <ul>
+ *     <li>add 数量 起始参数 到期时间(ms)：通过PartitionedTaskScheduling添加任务，输出"added"</li>
+ *     <li>stats：输出"stats 本节点任务数 已执行数 最后执行时间 节点数 转发数 接收数 迁移数"</li>
+ *     <li>quit：迁移任务后退出，输出"bye"</li>
+ * </ul>
+ * <p>参数：本节点地址 种子节点(逗号分隔) 密钥<p/>
+ * @author chen qi
+ */
+public class ClusterNode {
+    private final LongAdder fired = new LongAdder();
+    private final AtomicLong lastFired = new AtomicLong();
+
+    public void fire(Integer key) {
+        fired.increment();
+        lastFired.accumulateAndGet(System.currentTimeMillis(), Math::max);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ClusterNode target = new ClusterNode();
+        Method method = ClusterNode.class.getMethod("fire", Integer.class);
+        TaskTargetResolver resolver = new TaskTargetResolver() {
+            @Override
+            public String identify(Object object) {
+                return "node";
+            }
+
+            @Override
+            public Object resolve(String identity) {
+                return target;
+            }
+
+            @Override
+            public ClassLoader getClassLoader() {
+                return ClusterNode.class.getClassLoader();
+            }
+        };
+
+        ScheduledExecutorFactory factory = new ScheduledExecutorFactory();
+        factory.setDaemon(true);
+        factory.afterPropertiesSet();
+        TaskContainer container = new TaskContainer();
+        TaskScheduling scheduling = new TaskScheduling(container, factory);
+        scheduling.setParkedDispatch(true);
+
+        PartitionedTaskScheduling cluster = new PartitionedTaskScheduling(scheduling, resolver);
+        cluster.setLocalAddress(args[0]);
+        cluster.setSeeds(Arrays.asList(args[1].split(",")));
+        cluster.setSharedSecret(args[2]);
+        cluster.setTaskMethods(Collections.singleton(method));
+        cluster.setHeartbeatInterval(200L);
+        cluster.setFailureTimeout(2000L);
+        cluster.afterPropertiesSet();
+        System.out.println("ready");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] command = line.split(" ");
+            switch (command[0]) {
+                case "add":
+                    int count = Integer.parseInt(command[1]);
+                    int start = Integer.parseInt(command[2]);
+                    Date time = new Date(Long.parseLong(command[3]));
+                    for (int i = start; i < start + count; ++i) {
+                        cluster.addTask(time, method, target, new Object[]{i});
+                    }
+                    System.out.println("added");
+                    break;
+                case "stats":
+                    System.out.println("stats " + container.size() + " " + target.fired.sum() + " " + target.lastFired.get()
+                            + " " + cluster.getMembers().length + " " + cluster.getForwardedCount()
+                            + " " + cluster.getReceivedCount() + " " + cluster.getMigratedCount());
+                    break;
+                case "quit":
+                    cluster.destroy();
+                    scheduling.destroy();
+                    factory.destroy();
+                    System.out.println("bye");
+                    return;
+                default:
+                    System.out.println("unknown " + line);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.sumavision.launcher.task.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：在本机启动多个JVM组成分区调度集群，测量任务分布与集群的执行吞吐量<p/>
+ * <p>每个节点通过自己的PartitionedTaskScheduling添加相同数量的任务，任务按哈希转发给归属节点，全部在同一时刻到期；
+ * 输出各节点保存的任务数、从到期到最后一个任务执行的时间与每秒执行数，执行总数与添加总数不一致时以非0状态退出<p/>
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.sumavision.launcher.task.benchmark.ClusterThroughput \
+ *      [-nodes 3] [-tasks 300000] [-delay 10000] [-port 19100]
+ * </pre>
+ * @author chen qi
+ */
+public class ClusterThroughput {
+    private static final String SECRET = "cluster-throughput";
+
+    public static void main(String[] args) throws Exception {
+        int nodes = 3;
+        int tasks = 300000;
+        long delay = 10000L;
+        int port = 19100;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-nodes": nodes = Integer.parseInt(args[i + 1]); break;
+                case "-tasks": tasks = Integer.parseInt(args[i + 1]); break;
+                case "-delay": delay = Long.parseLong(args[i + 1]); break;
+                case "-port": port = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("未知参数: " + args[i]);
+            }
+        }
+
+        StringBuilder seeds = new StringBuilder();
+        for (int i = 0; i < nodes; ++i) {
+            seeds.append(i > 0 ? "," : "").append("127.0.0.1:").append(port + i);
+        }
+        List<Node> cluster = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodes; ++i) {
+                cluster.add(new Node("127.0.0.1:" + (port + i), seeds.toString()));
+            }
+            for (Node node : cluster) {
+                node.await("ready");
+            }
+            awaitMembers(cluster, nodes);
+
+            int perNode = tasks / nodes;
+            tasks = perNode * nodes;
+            long at = System.currentTimeMillis() + delay;
+            long started = System.nanoTime();
+            for (int i = 0; i < nodes; ++i) {
+                cluster.get(i).send("add " + perNode + " " + (i * perNode) + " " + at);
+            }
+            for (Node node : cluster) {
+                node.await("added");
+            }
+            long submitted = System.nanoTime() - started;
+            if (System.currentTimeMillis() >= at) {
+                System.out.println("警告：添加在到期前没有完成，增大-delay");
+            }
+            System.out.printf("添加 %d 个任务用时 %d ms%n", tasks, TimeUnit.NANOSECONDS.toMillis(submitted));
+            for (Node node : cluster) {
+                System.out.printf("  %s 保存 %d 个任务%n", node.address, node.stats()[0]);
+            }
+
+            long fired = 0;
+            long last = 0;
+            long deadline = at + TimeUnit.MINUTES.toMillis(1);
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(200L);
+                fired = 0;
+                last = 0;
+                for (Node node : cluster) {
+                    long[] stats = node.stats();
+                    fired += stats[1];
+                    last = Math.max(last, stats[2]);
+                }
+                if (fired >= tasks && System.currentTimeMillis() > last + 500L) {
+                    break;
+                }
+            }
+            long window = Math.max(1L, last - at);
+            System.out.printf("%d 个节点执行 %d/%d 个任务，从到期到全部执行 %d ms，%d 个/秒%n",
+                    nodes, fired, tasks, window, fired * 1000L / window);
+            if (fired != tasks) {
+                System.exit(1);
+            }
+        } finally {
+            for (Node node : cluster) {
+                node.quit();
+            }
+        }
+    }
+
+    private static void awaitMembers(List<Node> cluster, int nodes) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        for (Node node : cluster) {
+            while (node.stats()[3] < nodes) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException(node.address + "没有发现所有节点");
+                }
+                Thread.sleep(100L);
+            }
+        }
+    }
+
+    /**
+     * 节点进程，输出中的应答放入队列，其他输出直接打印
+     */
+    private static final class Node {
+        private final String address;
+        private final Process process;
+        private final PrintWriter out;
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+        Node(String address, String seeds) throws IOException {
+            this.address = address;
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            this.process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ClusterNode.class.getName(), address, seeds, SECRET).redirectErrorStream(true).start();
+            this.out = new PrintWriter(process.getOutputStream(), true, StandardCharsets.UTF_8);
+            Thread reader = new Thread(this::read, "ClusterThroughput-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void read() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.equals("ready") || line.equals("added") || line.equals("bye") || line.startsWith("stats ")) {
+                        replies.add(line);
+                    } else {
+                        System.out.println(address + ": " + line);
+                    }
+                }
+            } catch (IOException ex) {
+                //进程已退出
+            }
+        }
+
+        void send(String command) {
+            out.println(command);
+        }
+
+        String await(String prefix) throws InterruptedException {
+            String reply = replies.poll(5, TimeUnit.MINUTES);
+            if (reply == null || !reply.startsWith(prefix)) {
+                throw new IllegalStateException(address + "应答" + prefix + "超时: " + reply);
+            }
+            return reply;
+        }
+
+        /**
+         * @return 本节点任务数、已执行数、最后执行时间、节点数、转发数、接收数、迁移数
+         */
+        long[] stats() throws InterruptedException {
+            send("stats");
+            String[] fields = await("stats ").split(" ");
+            long[] stats = new long[fields.length - 1];
+            for (int i = 1; i < fields.length; ++i) {
+                stats[i - 1] = Long.parseLong(fields[i]);
+            }
+            return stats;
+        }
+
+        void quit() throws InterruptedException {
+            if (process.isAlive()) {
+                send("quit");
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.ScheduledExecutorTask;
+import com.sumavision.launcher.task.support.TaskContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>功能描述：多个提交线程与一个派发线程同时访问TaskContainer<p/>
+ * <p>put按TaskScheduling.addTask的方式先删除相同任务再在锁内插入，offer先进入无锁队列，在派发线程下一次持锁时合并；
+ * 每个提交线程的任务数有上限，超过后替换自己已提交的任务；容器设置容量上限，
+ * 使无锁队列的积压有界，积压达到上限后offer改为在锁内插入<p/>
+ * @author chen qi
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentProducerBenchmark {
+    /**每个提交线程的任务数*/
+    private static final int KEYS_PER_PRODUCER = 4096;
+    private static final int DRAIN_BATCH = 1024;
+    /**容器容量，远大于所有提交线程的任务数之和，只限制无锁队列的积压*/
+    private static final int CAPACITY = 1 << 16;
+
+    @Param({"put", "offer"})
+    public String insert;
+
+    private TaskContainer container;
+    private Method method;
+    private Callbacks target;
+    private final AtomicInteger producers = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = new TaskContainer();
+        container.setCapacity(CAPACITY);
+        method = Callbacks.method("noop");
+        target = new Callbacks();
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private Object[][] args;
+        private int cursor;
+
+        @Setup(Level.Trial)
+        public void setUp(ConcurrentProducerBenchmark benchmark) {
+            int base = benchmark.producers.getAndIncrement() * KEYS_PER_PRODUCER;
+            args = new Object[KEYS_PER_PRODUCER][];
+            for(int i = 0; i < KEYS_PER_PRODUCER; ++i){
+                args[i] = new Object[]{base + i};
+            }
+        }
+
+        Object[] next() {
+            cursor = (cursor + 1) & (KEYS_PER_PRODUCER - 1);
+            return args[cursor];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Dispatcher {
+        final List<ScheduledExecutorTask> sink = new ArrayList<>(DRAIN_BATCH);
+    }
+
+    @Benchmark
+    @Group("producers")
+    @GroupThreads(3)
+    public void produce(Producer producer) {
+        //到期时间为当前，派发线程下一次取出
+        Date now = new Date();
+        Object[] args = producer.next();
+        if("offer".equals(insert)){
+            container.offer(now, method, target, args, false);
+        }else{
+            container.remove(now, method, target, args);
+            container.put(now, method, target, args);
+        }
+    }
+
+    @Benchmark
+    @Group("producers")
+    @GroupThreads(1)
+    public int drain(Dispatcher dispatcher) {
+        int count = container.drainExpired(System.currentTimeMillis(), dispatcher.sink, DRAIN_BATCH);
+        dispatcher.sink.clear();
+        return count;
+    }
+}
@@ -0,0 +1,32 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.TaskScheduling;
+
+/**
+ * <p>功能描述：TaskScheduling的派发方式<p/>
+ * @author chen qi
+ */
+final class Dispatch {
+
+    private Dispatch() {
+    }
+
+    /**
+     * @param scheduling 调度
+     * @param mode head：每次唤醒只执行头任务；batch：批量取出到期任务；parked：独立派发线程
+     */
+    static void apply(TaskScheduling scheduling, String mode) {
+        switch (mode) {
+            case "head":
+                break;
+            case "batch":
+                scheduling.setBatchDispatch(true);
+                break;
+            case "parked":
+                scheduling.setParkedDispatch(true);
+                break;
+            default:
+                throw new IllegalArgumentException("未知的派发方式: " + mode);
+        }
+    }
+}
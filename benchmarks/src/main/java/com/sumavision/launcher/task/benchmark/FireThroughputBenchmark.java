@@ -0,0 +1,91 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.ScheduledExecutorFactory;
+import com.sumavision.launcher.task.support.SchedulerMetrics;
+import com.sumavision.launcher.task.support.TaskContainer;
+import com.sumavision.launcher.task.support.TaskScheduling;
+import com.sumavision.launcher.task.util.Histogram;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>功能描述：经过ScheduledExecutorFactory的端到端执行吞吐量与执行延迟<p/>
+ * <p>每次调用提交一批立即到期的任务并等待全部执行，每批使用新的参数，不替换上一批刚执行的任务；执行延迟(实际执行时间减去计划执行时间)
+ * 由SchedulerMetrics记录，每轮结束时输出p50、p99与最大值(ms)<p/>
+ * @author chen qi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FireThroughputBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"0", "4"})
+    public int workerPoolSize;
+
+    @Param({"head", "batch", "parked"})
+    public String dispatch;
+
+    private ScheduledExecutorFactory factory;
+    private TaskContainer container;
+    private TaskScheduling scheduling;
+    private SchedulerMetrics metrics;
+    private Method method;
+    private Callbacks target;
+    private int sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        factory = new ScheduledExecutorFactory();
+        factory.setPoolSize(1);
+        factory.setWorkerPoolSize(workerPoolSize);
+        factory.afterPropertiesSet();
+        container = new TaskContainer(BATCH);
+        scheduling = new TaskScheduling(container, factory);
+        Dispatch.apply(scheduling, dispatch);
+        method = Callbacks.method("count");
+        target = new Callbacks();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetMetrics() {
+        metrics = new SchedulerMetrics();
+        scheduling.setMetrics(metrics);
+        container.setMetrics(metrics);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printLag() {
+        Histogram.Snapshot lag = metrics.snapshot().getFireLag();
+        System.out.printf("%n执行延迟(ms): count=%d p50=%d p99=%d max=%d%n", lag.getCount(),
+                lag.getValueAtPercentile(50), lag.getValueAtPercentile(99), lag.getMax());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduling.destroy();
+        factory.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fire() throws Exception {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        target.latch = latch;
+        Date now = new Date();
+        for(int i = 0; i < BATCH; ++i){
+            scheduling.addTask(now, method, target, new Object[]{sequence++});
+        }
+        if(!latch.await(30, TimeUnit.SECONDS)){
+            throw new TimeoutException("剩余" + latch.getCount() + "个任务未执行");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.ScheduledMethodRunnable;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：回调调用方式的开销：直接调用、Method.invoke与ScheduledMethodRunnable<p/>
+ * <p>callback分别为实例方法、静态方法与可变参数方法，direct固定直接调用实例方法noop作为基线。
+ * JDK 18及以上Method.invoke本身也通过MethodHandle实现，需要在目标JDK上分别运行比较<p/>
+ * @author chen qi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+    @Param({"noop", "staticNoop", "varargs"})
+    public String callback;
+
+    private Callbacks target;
+    private Integer key;
+    private Method method;
+    private Object[] args;
+    private ScheduledMethodRunnable runnable;
+
+    @Setup
+    public void setUp() {
+        target = new Callbacks();
+        key = 1;
+        method = Callbacks.method(callback);
+        args = "varargs".equals(callback) ? new Object[]{new Integer[]{key}} : new Object[]{key};
+        runnable = new ScheduledMethodRunnable(method, target, args);
+    }
+
+    @Benchmark
+    public void direct() {
+        target.noop(key);
+    }
+
+    @Benchmark
+    public Object reflection() throws Exception {
+        return method.invoke(target, args);
+    }
+
+    @Benchmark
+    public void runnable() {
+        runnable.run();
+    }
+}
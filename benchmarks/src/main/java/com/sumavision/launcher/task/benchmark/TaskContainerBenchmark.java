@@ -0,0 +1,86 @@
+package com.sumavision.launcher.task.benchmark;
+
+import com.sumavision.launcher.task.support.ScheduledExecutorTask;
+import com.sumavision.launcher.task.support.ScheduledMethodRunnable;
+import com.sumavision.launcher.task.support.TaskContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：TaskContainer堆操作，任务数10^5到10^7<p/>
+ * <ul>
+ *     <li>replace：按任务删除后插入，即addTask替换相同任务的路径</li>
+ *     <li>removeHeadAndPut：取出头任务后以更晚的执行时间放回，堆大小不变</li>
+ *     <li>removeAndPutBack：按任务删除后原样放回</li>
+ * </ul>
+ * @author chen qi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class TaskContainerBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int size;
+
+    private TaskContainer container;
+    private Method method;
+    private Callbacks target;
+    private Object[][] args;
+    private long[] deadlines;
+    private long base;
+    private int cursor;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = new TaskContainer(size);
+        method = Callbacks.method("noop");
+        target = new Callbacks();
+        args = new Object[size][];
+        deadlines = new long[size];
+        //执行时间都在一天之后，测试期间不会到期
+        base = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        for(int i = 0; i < size; ++i){
+            args[i] = new Object[]{i};
+            deadlines[i] = base + random.nextInt(size * 4);
+            container.put(new Date(deadlines[i]), method, target, args[i]);
+        }
+    }
+
+    private int nextKey() {
+        int key = cursor;
+        cursor = key + 1 == size ? 0 : key + 1;
+        return key;
+    }
+
+    @Benchmark
+    public boolean replace() {
+        int key = nextKey();
+        long deadline = base + random.nextInt(size * 4);
+        container.remove(null, method, target, args[key]);
+        return container.put(new Date(deadline), method, target, args[key]);
+    }
+
+    @Benchmark
+    public boolean removeHeadAndPut() {
+        ScheduledExecutorTask head = container.getHeadTask();
+        Object[] headArgs = ((ScheduledMethodRunnable) head.getRunnable()).getArgs();
+        container.removeHead();
+        return container.put(new Date(base + size * 4L + random.nextInt(size * 4)), method, target, headArgs);
+    }
+
+    @Benchmark
+    public boolean removeAndPutBack() {
+        int key = nextKey();
+        container.remove(null, method, target, args[key]);
+        return container.put(new Date(deadlines[key]), method, target, args[key]);
+    }
+}
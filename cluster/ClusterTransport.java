@@ -0,0 +1,335 @@
+package com.sumavision.launcher.task.cluster;
+
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>功能描述：节点之间的TCP请求应答，每个对端保持一个连接，同一连接上的请求依次发送<p/>
+ * <p>连接建立后服务端先发送随机数；请求格式：[长度int][类型byte][内容][签名]；应答格式：[长度int][状态byte][内容][签名]，
+ * 长度不包括自身。签名为共享密钥对随机数、方向、连接内序号、类型或状态与内容的HmacSHA256，
+ * 签名错误的连接直接关闭，重放与跨连接转发的帧无法通过校验<p/>
+ * @author chen qi
+ */
+final class ClusterTransport implements Closeable {
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    /**单个请求的最大长度*/
+    private static final int MAX_FRAME = 64 << 20;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final int NONCE_LENGTH = 16;
+    private static final byte REQUEST = 'Q';
+    private static final byte RESPONSE = 'R';
+
+    /**
+     * 请求处理
+     */
+    interface Handler {
+        /**
+         * @param type 请求类型
+         * @param body 请求内容
+         * @return 应答内容
+         */
+        byte[] handle(byte type, DataInputStream body) throws Exception;
+    }
+
+    private final String localAddress;
+    private final int timeout;
+    private final SecretKeySpec key;
+    private final Handler handler;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskCluster-");
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param localAddress 本节点地址host:port
+     * @param timeout 连接与读取超时(ms)
+     * @param secret 所有节点共用的密钥
+     * @param handler 请求处理
+     */
+    ClusterTransport(String localAddress, int timeout, byte[] secret, Handler handler) {
+        if (secret == null || secret.length == 0){ throw new IllegalArgumentException("集群密钥不能为空");}
+        this.localAddress = localAddress;
+        this.timeout = timeout;
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.handler = handler;
+        threadFactory.setDaemon(true);
+    }
+
+    void start() throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(toSocketAddress(localAddress));
+        serverSocket = server;
+        running = true;
+        threadFactory.newThread(this::acceptLoop).start();
+    }
+
+    /**
+     * 发送请求并等待应答
+     * @param address 对端地址host:port
+     * @param type 请求类型
+     * @param body 请求内容
+     * @return 应答内容
+     * @throws NotSentException 连接失败，请求没有发出
+     * @throws RemoteException 对端处理失败
+     * @throws IOException 请求发出后超时或断开，对端可能已经处理
+     */
+    byte[] request(String address, byte type, byte[] body) throws IOException {
+        Connection connection = connections.get(address);
+        if(connection == null){
+            connection = new Connection(address);
+            Connection previous = connections.putIfAbsent(address, connection);
+            if(previous != null){
+                connection = previous;
+            }
+        }
+        try {
+            return connection.request(type, body);
+        } catch (RemoteException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            connections.remove(address, connection);
+            connection.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        ServerSocket server = serverSocket;
+        if(server != null){
+            try {
+                server.close();
+            } catch (IOException ex) {
+                //关闭时忽略
+            }
+        }
+        for(Connection connection : connections.values()){
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    private void acceptLoop() {
+        while(running){
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                threadFactory.newThread(() -> serve(socket)).start();
+            } catch (IOException ex) {
+                if(!running){
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            Mac mac = newMac();
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            out.write(nonce);
+            out.flush();
+            //第一个请求通过校验之前按超时断开，未认证的连接不长期占用线程
+            s.setSoTimeout(timeout);
+            for(long sequence = 0; running; ++sequence){
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    return;
+                }
+                if(length < 1 + MAC_LENGTH || length > MAX_FRAME){
+                    throw new StreamCorruptedException("请求长度错误: " + length);
+                }
+                byte type = in.readByte();
+                byte[] body = new byte[length - 1 - MAC_LENGTH];
+                in.readFully(body);
+                verify(mac, nonce, REQUEST, sequence, type, body, in);
+                if(sequence == 0){
+                    s.setSoTimeout(0);
+                }
+
+                byte status = OK;
+                byte[] response;
+                try {
+                    response = handler.handle(type, new DataInputStream(new ByteArrayInputStream(body)));
+                } catch (Exception ex) {
+                    status = ERROR;
+                    response = String.valueOf(ex).getBytes("UTF-8");
+                }
+                if(response == null){
+                    response = new byte[0];
+                }
+                out.writeInt(response.length + 1 + MAC_LENGTH);
+                out.writeByte(status);
+                out.write(response);
+                out.write(sign(mac, nonce, RESPONSE, sequence, status, response));
+                out.flush();
+            }
+        } catch (IOException ex) {
+            //对端断开或签名错误，连接由对端重建
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] sign(Mac mac, byte[] nonce, byte direction, long sequence, byte type, byte[] body) {
+        mac.update(nonce);
+        mac.update(direction);
+        for(int shift = 56; shift >= 0; shift -= 8){
+            mac.update((byte) (sequence >>> shift));
+        }
+        mac.update(type);
+        mac.update(body);
+        return mac.doFinal();
+    }
+
+    /**
+     * 读取帧末尾的签名并校验
+     */
+    private static void verify(Mac mac, byte[] nonce, byte direction, long sequence, byte type, byte[] body,
+                               DataInputStream in) throws IOException {
+        byte[] signature = new byte[MAC_LENGTH];
+        in.readFully(signature);
+        if(!MessageDigest.isEqual(signature, sign(mac, nonce, direction, sequence, type, body))){
+            throw new StreamCorruptedException("签名错误");
+        }
+    }
+
+    static InetSocketAddress toSocketAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if(colon <= 0){
+            throw new IllegalArgumentException("节点地址格式为host:port: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    /**
+     * 到一个对端的连接，断开后在下一次请求时重建
+     */
+    private final class Connection {
+        private final String address;
+        private final Mac mac = newMac();
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private byte[] nonce;
+        private long sequence;
+
+        Connection(String address) {
+            this.address = address;
+        }
+
+        synchronized byte[] request(byte type, byte[] body) throws IOException {
+            if(socket == null){
+                connect();
+            }
+            long current = sequence++;
+            out.writeInt(body.length + 1 + MAC_LENGTH);
+            out.writeByte(type);
+            out.write(body);
+            out.write(sign(mac, nonce, REQUEST, current, type, body));
+            out.flush();
+
+            int length = in.readInt();
+            if(length < 1 + MAC_LENGTH || length > MAX_FRAME){
+                throw new StreamCorruptedException("应答长度错误: " + length);
+            }
+            byte status = in.readByte();
+            byte[] response = new byte[length - 1 - MAC_LENGTH];
+            in.readFully(response);
+            verify(mac, nonce, RESPONSE, current, status, response, in);
+            if(status != OK){
+                throw new RemoteException(address + ": " + new String(response, "UTF-8"));
+            }
+            return response;
+        }
+
+        /**
+         * 建立连接并读取服务端的随机数，失败时请求没有发出
+         */
+        private void connect() throws NotSentException {
+            Socket s = new Socket();
+            try {
+                s.connect(toSocketAddress(address), timeout);
+                s.setSoTimeout(timeout);
+                s.setTcpNoDelay(true);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                byte[] received = new byte[NONCE_LENGTH];
+                input.readFully(received);
+                in = input;
+                out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                nonce = received;
+                sequence = 0;
+                socket = s;
+            } catch (IOException ex) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    //关闭时忽略
+                }
+                throw new NotSentException(address + ": " + ex, ex);
+            }
+        }
+
+        synchronized void close() {
+            if(socket != null){
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    //关闭时忽略
+                }
+                socket = null;
+            }
+        }
+    }
+
+    /**
+     * 对端处理请求失败，连接仍然可用
+     */
+    static final class RemoteException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RemoteException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 连接失败，请求没有发出，对端一定没有处理
+     */
+    static final class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.sumavision.launcher.task.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * <p>功能描述：一致性哈希环，每个节点放置多个虚拟节点，按任务键的哈希找到顺时针方向的第一个节点<p/>
+ * <p>哈希只依赖节点地址与任务键的字节，不同JVM对同一组节点得到相同的环；
+ * 节点加入或离开时只有相邻区间的任务改变归属<p/>
+ * @author chen qi
+ */
+public final class HashRing {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String[] members;
+    /**按哈希排序的虚拟节点位置*/
+    private final long[] points;
+    /**与points同位置的节点下标*/
+    private final int[] owners;
+
+    /**
+     * @param members 节点地址
+     * @param virtualNodes 每个节点的虚拟节点数
+     */
+    public HashRing(Collection<String> members, int virtualNodes) {
+        if(members.isEmpty() || virtualNodes < 1){
+            throw new IllegalArgumentException();
+        }
+        this.members = new TreeSet<>(members).toArray(new String[0]);
+        int count = this.members.length * virtualNodes;
+        long[] keyed = new long[count];
+        int[] index = new int[count];
+        int n = 0;
+        for(int m = 0; m < this.members.length; ++m){
+            for(int v = 0; v < virtualNodes; ++v){
+                keyed[n] = hash((this.members[m] + "#" + v).getBytes(StandardCharsets.UTF_8));
+                index[n++] = m;
+            }
+        }
+        //按哈希排序，相同哈希按节点下标保证各节点结果一致
+        Integer[] order = new Integer[count];
+        for(int i = 0; i < count; ++i){
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keyed[a] != keyed[b] ? Long.compare(keyed[a], keyed[b]) : Integer.compare(index[a], index[b]));
+        this.points = new long[count];
+        this.owners = new int[count];
+        for(int i = 0; i < count; ++i){
+            points[i] = keyed[order[i]];
+            owners[i] = index[order[i]];
+        }
+    }
+
+    /**
+     * 任务键所属的节点
+     * @param keyHash 任务键的哈希，见{@link #hash(byte[])}
+     * @return 节点地址
+     */
+    public String owner(long keyHash) {
+        int p = Arrays.binarySearch(points, keyHash);
+        if(p < 0){
+            p = -p - 1;
+        }
+        return members[owners[p == points.length ? 0 : p]];
+    }
+
+    public String[] getMembers() {
+        return members.clone();
+    }
+
+    public boolean contains(String member) {
+        return Arrays.binarySearch(members, member) >= 0;
+    }
+
+    /**
+     * 64位FNV-1a后再混合一次，使相近的输入分布均匀
+     */
+    public static long hash(byte[] bytes) {
+        long h = FNV_OFFSET;
+        for(byte b : bytes){
+            h ^= b & 0xff;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
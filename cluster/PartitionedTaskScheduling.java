@@ -0,0 +1,878 @@
+package com.sumavision.launcher.task.cluster;
+
+import com.sumavision.launcher.task.persistence.TaskCodec;
+import com.sumavision.launcher.task.persistence.TaskTargetResolver;
+import com.sumavision.launcher.task.support.TaskDefinition;
+import com.sumavision.launcher.task.support.TaskScheduling;
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>功能描述：分区调度，任务按回调方法与参数的哈希分配给集群中的一个节点，由该节点的TaskScheduling保存并执行<p/>
+ * <ul>
+ *     <li>节点通过TCP心跳并行互相发现，心跳中交换已知节点，只需配置部分种子节点；超过failureTimeout没有通信的节点不再分配任务，
+ *     不是种子节点的同时从已知节点中移除</li>
+ *     <li>存活节点变化时重建一致性哈希环，各节点把不再属于自己的任务迁移给新的节点</li>
+ *     <li>转发与迁移的每批任务带有唯一编号，接收方按编号去重；连接失败或对端拒绝时任务放回本节点，之后的心跳中再迁移；
+ *     请求发出后超时的批次按原编号重试，归属节点失效后才放回本节点</li>
+ *     <li>正常关闭时先把所有任务迁移给其他节点并通知离开</li>
+ *     <li>任务只保存在归属节点，没有副本，也不会把持久化日志交给其他节点：节点崩溃后其任务在集群中丢失，
+ *     其他节点接管它的哈希区间但不会得到这些任务；本节点使用JournaledTaskQueue时，重启后从日志恢复，再按当时的哈希环迁移</li>
+ * </ul>
+ * <p>多个JVM在本机组成集群的测试见benchmarks模块的ClusterThroughput<p/>
+ * <p>节点之间的请求按共享密钥签名，只接受setTaskMethods中的回调方法，回调对象必须是该方法所在类的实例，
+ * 参数按setArgsFilter的白名单反序列化。参数的hashCode需与equals一致且在各节点相同，
+ * 例如字符串、基本类型包装类、枚举及由它们组成的集合，不支持数组参数<p/>
+ * <p>回调对象通过TaskTargetResolver在各节点之间转换，参数必须可以序列化。
+ * 本节点的TaskScheduling只应通过本类添加一次性任务，迁移不保留周期规则、优先级与通道<p/>
+ * @author chen qi
+ */
+public class PartitionedTaskScheduling implements InitializingBean, DisposableBean {
+    static final byte PING = 1;
+    static final byte PUT = 2;
+    static final byte REMOVE = 3;
+    static final byte LEAVE = 4;
+    /**连接失败或对端拒绝，对端没有保存*/
+    private static final int REJECTED = 0;
+    private static final int DELIVERED = 1;
+    /**请求发出后失败，对端可能已经保存*/
+    private static final int UNCONFIRMED = 2;
+    /**接收方记录的最近批次编号数*/
+    private static final int APPLIED_BATCHES = 4096;
+
+    private final TaskScheduling local;
+
+    private final TaskTargetResolver targetResolver;
+
+    /**本节点地址host:port*/
+    private String localAddress;
+
+    /**种子节点地址*/
+    private Set<String> seeds = Collections.emptySet();
+
+    /**心跳间隔(ms)*/
+    private long heartbeatInterval = 1000L;
+
+    /**超过该时间(ms)没有通信的节点视为离开*/
+    private long failureTimeout = 5000L;
+
+    /**每个节点的虚拟节点数*/
+    private int virtualNodes = 128;
+
+    /**迁移时每个请求的任务数*/
+    private int batchSize = 1000;
+
+    /**所有节点共用的密钥*/
+    private byte[] sharedSecret;
+
+    /**允许其他节点提交与删除的回调方法*/
+    private Set<Method> taskMethods = Collections.emptySet();
+
+    /**其他节点发来的参数的反序列化白名单*/
+    private ObjectInputFilter argsFilter = TaskCodec.DEFAULT_ARGS_FILTER;
+
+    /**已知节点，key为地址*/
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+
+    /**心跳尚未返回的节点，上一次心跳返回前不再发送*/
+    private final Set<String> pinging = ConcurrentHashMap.newKeySet();
+
+    /**请求发出后未确认的批次*/
+    private final Queue<Batch> unconfirmed = new ConcurrentLinkedQueue<>();
+
+    /**批次编号的前缀，每次启动随机生成*/
+    private final long incarnation = new SecureRandom().nextLong();
+
+    private final AtomicLong batchSequence = new AtomicLong();
+
+    /**最近处理过的批次编号，与appliedOrder一起由appliedBatches加锁*/
+    private final Set<String> appliedBatches = new HashSet<>();
+    private final ArrayDeque<String> appliedOrder = new ArrayDeque<>();
+
+    /**回调方法签名的编码，用于计算任务键*/
+    private final Map<Method, byte[]> signatures = new ConcurrentHashMap<>();
+
+    /**参数类型是否覆盖了hashCode*/
+    private final Map<Class<?>, Boolean> valueTypes = new ConcurrentHashMap<>();
+
+    private volatile HashRing ring;
+
+    private volatile boolean rebalanceNeeded;
+
+    private volatile boolean leaving;
+
+    private ClusterTransport transport;
+
+    private ScheduledExecutorService heartbeatExecutor;
+
+    private ExecutorService pingExecutor;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder migrated = new LongAdder();
+
+    /**
+     * @param local 本节点的调度
+     * @param targetResolver 回调对象标识转换
+     */
+    public PartitionedTaskScheduling(TaskScheduling local, TaskTargetResolver targetResolver) {
+        if (local == null || targetResolver == null){ throw new NullPointerException();}
+        this.local = local;
+        this.targetResolver = targetResolver;
+    }
+
+    /**
+     * 设置本节点地址，格式为host:port，同时作为监听地址
+     */
+    public void setLocalAddress(String localAddress) {
+        this.localAddress = localAddress;
+    }
+
+    public String getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * 设置种子节点地址，格式为host:port，可以包括本节点
+     */
+    public void setSeeds(Collection<String> seeds) {
+        this.seeds = seeds != null ? new LinkedHashSet<>(seeds) : Collections.<String>emptySet();
+    }
+
+    /**
+     * 设置心跳间隔(ms)，默认为1000
+     */
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        if(heartbeatInterval > 0){
+            this.heartbeatInterval = heartbeatInterval;
+        }
+    }
+
+    /**
+     * 设置节点失效时间(ms)，默认为5000，同时作为连接与读取超时
+     */
+    public void setFailureTimeout(long failureTimeout) {
+        if(failureTimeout > 0){
+            this.failureTimeout = failureTimeout;
+        }
+    }
+
+    /**
+     * 设置每个节点的虚拟节点数，默认为128，所有节点需一致
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        if(virtualNodes > 0){
+            this.virtualNodes = virtualNodes;
+        }
+    }
+
+    /**
+     * 设置迁移时每个请求的任务数，默认为1000
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize > 0){
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * 设置所有节点共用的密钥，用于签名节点之间的请求，必须设置
+     */
+    public void setSharedSecret(String sharedSecret) {
+        this.sharedSecret = sharedSecret != null ? sharedSecret.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * 设置可以分区调度的回调方法，其他节点只能提交与删除这些方法的任务
+     */
+    public void setTaskMethods(Collection<Method> taskMethods) {
+        this.taskMethods = taskMethods != null ? new HashSet<>(taskMethods) : Collections.<Method>emptySet();
+    }
+
+    /**
+     * 设置其他节点发来的参数的反序列化白名单，默认为TaskCodec.DEFAULT_ARGS_FILTER
+     */
+    public void setArgsFilter(ObjectInputFilter argsFilter) {
+        if(argsFilter != null){
+            this.argsFilter = argsFilter;
+        }
+    }
+
+    /**
+     * 启动监听并完成第一次心跳，之后添加的任务按当前可达的节点分配
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if(localAddress == null){
+            throw new IllegalStateException("未设置本节点地址");
+        }
+        if(sharedSecret == null || sharedSecret.length == 0){
+            throw new IllegalStateException("未设置集群密钥");
+        }
+        long now = System.currentTimeMillis();
+        for(String seed : seeds){
+            if(!seed.equals(localAddress)){
+                members.putIfAbsent(seed, new Member(now));
+            }
+        }
+        ring = new HashRing(Collections.singleton(localAddress), virtualNodes);
+
+        transport = new ClusterTransport(localAddress, (int) Math.min(failureTimeout, Integer.MAX_VALUE), sharedSecret,
+                this::handle);
+        transport.start();
+
+        CustomizableThreadFactory pingThreadFactory = new CustomizableThreadFactory("TaskClusterPing-");
+        pingThreadFactory.setDaemon(true);
+        pingExecutor = Executors.newCachedThreadPool(pingThreadFactory);
+
+        heartbeat();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskClusterHeartbeat-");
+        threadFactory.setDaemon(true);
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 把本节点的任务迁移给其他存活节点，通知离开后关闭监听
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        leaving = true;
+        if(heartbeatExecutor != null){
+            heartbeatExecutor.shutdown();
+            heartbeatExecutor.awaitTermination(failureTimeout, TimeUnit.MILLISECONDS);
+        }
+        if(transport == null){
+            return;
+        }
+
+        List<String> others = aliveMembers();
+        if(!others.isEmpty()){
+            ring = new HashRing(others, virtualNodes);
+            rebalance();
+            //仍未确认的批次再重试一次，之后无法判断对端是否已经保存
+            retryUnconfirmed();
+            byte[] body = localAddress.getBytes(StandardCharsets.UTF_8);
+            for(String member : others){
+                try {
+                    transport.request(member, LEAVE, body);
+                } catch (IOException ex) {
+                    //对端按失效时间移除本节点
+                }
+            }
+        }
+        if(pingExecutor != null){
+            pingExecutor.shutdownNow();
+        }
+        transport.close();
+    }
+
+    /**
+     * 添加任务，相同任务会替换原有任务
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     */
+    public void addTask(Date time, Method method, Object clazz, Object[] args){
+        submit(time, method, clazz, args, false);
+    }
+
+    /**
+     * 添加任务，已有相同任务时不替换
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     */
+    public void addIfAbsent(Date time, Method method, Object clazz, Object[] args){
+        submit(time, method, clazz, args, true);
+    }
+
+    /**
+     * 删除任务
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 是否删除
+     */
+    public boolean removeTask(Method method, Object clazz, Object[] args) throws IOException {
+        checkTaskMethod(method);
+        String owner = ring.owner(keyHash(method, args));
+        boolean removed = local.removeTask(null, method, clazz, args);
+        if(owner.equals(localAddress)){
+            return removed;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(targetResolver.identify(clazz));
+        TaskCodec.writeMethod(out, method);
+        writeArgs(out, TaskCodec.serializeArgs(args));
+        out.flush();
+        return transport.request(owner, REMOVE, bytes.toByteArray())[0] != 0 || removed;
+    }
+
+    /**
+     * 任务当前所属的节点
+     * @param method 回调方法
+     * @param args 参数
+     * @return 节点地址
+     */
+    public String owner(Method method, Object[] args){
+        return ring.owner(keyHash(method, args));
+    }
+
+    /**
+     * 当前参与分配的节点
+     */
+    public String[] getMembers(){
+        return ring.getMembers();
+    }
+
+    /**转发给其他节点的任务数*/
+    public long getForwardedCount() {
+        return forwarded.sum();
+    }
+
+    /**从其他节点收到的任务数*/
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**迁移给其他节点的任务数*/
+    public long getMigratedCount() {
+        return migrated.sum();
+    }
+
+    private void submit(Date time, Method method, Object clazz, Object[] args, boolean onlyIfAbsent){
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        checkTaskMethod(method);
+        String owner = ring.owner(keyHash(method, args));
+        if(!owner.equals(localAddress)){
+            TaskDefinition task = new TaskDefinition(time, method, clazz, args);
+            List<byte[]> encodedArgs = Collections.singletonList(TaskCodec.serializeArgs(args));
+            Batch batch = newBatch(owner, Collections.singletonList(task), encodedArgs, onlyIfAbsent, forwarded);
+            int result = deliver(batch);
+            if(result != REJECTED){
+                //归属节点不可达时保存在本节点的旧任务尚未迁移，不删除会在两个节点各执行一次
+                local.removeTask(null, method, clazz, args);
+                return;
+            }
+            //归属节点不可达，先保存在本节点，之后的心跳中再迁移
+            rebalanceNeeded = true;
+        }
+        addLocal(time, method, clazz, args, onlyIfAbsent);
+    }
+
+    private void addLocal(Date time, Method method, Object clazz, Object[] args, boolean onlyIfAbsent){
+        if(onlyIfAbsent){
+            local.addIfAbsent(time, method, clazz, args);
+        }else{
+            local.addTask(time, method, clazz, args);
+        }
+    }
+
+    private void checkTaskMethod(Method method){
+        if(!taskMethods.contains(method)){
+            throw new IllegalArgumentException("回调方法没有通过setTaskMethods设置: " + method);
+        }
+    }
+
+    /**
+     * 处理其他节点的请求
+     */
+    private byte[] handle(byte type, DataInputStream in) throws Exception {
+        switch (type) {
+            case PING:
+                learn(in);
+                return encodeMembers();
+            case PUT:
+                if(leaving){
+                    throw new IllegalStateException("节点正在离开: " + localAddress);
+                }
+                receive(in);
+                return null;
+            case REMOVE:
+                String targetId = in.readUTF();
+                ClassLoader classLoader = targetResolver.getClassLoader();
+                Method method = readTaskMethod(in, classLoader);
+                Object target = resolveTarget(targetId, method);
+                Object[] args = TaskCodec.deserializeArgs(readArgs(in), classLoader, argsFilter);
+                return new byte[]{(byte) (local.removeTask(null, method, target, args) ? 1 : 0)};
+            case LEAVE:
+                members.remove(in.readUTF());
+                return null;
+            default:
+                throw new IllegalArgumentException("未知的请求类型: " + type);
+        }
+    }
+
+    /**
+     * 先解码校验整批任务，全部通过后再添加，相同编号的批次只添加一次
+     * <p>本节点容器拒绝的任务按本节点的上限策略处理，批次仍视为已接收
+     */
+    private void receive(DataInputStream in) throws Exception {
+        String batchId = Long.toHexString(in.readLong()) + ':' + Long.toHexString(in.readLong());
+        ClassLoader classLoader = targetResolver.getClassLoader();
+        Map<String, Object> targets = new HashMap<>();
+        int count = in.readInt();
+        if(count < 0 || count > in.available()){
+            throw new StreamCorruptedException("任务数错误: " + count);
+        }
+        HashRing current = ring;
+        boolean[] onlyIfAbsent = new boolean[count];
+        boolean[] foreign = new boolean[count];
+        List<TaskDefinition> tasks = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i){
+            onlyIfAbsent[i] = in.readBoolean();
+            long time = in.readLong();
+            String targetId = in.readUTF();
+            Method method = readTaskMethod(in, classLoader);
+            Object target = targets.get(targetId);
+            if(target == null){
+                target = resolveTarget(targetId, method);
+                targets.put(targetId, target);
+            }else if(!method.getDeclaringClass().isInstance(target)){
+                throw new SecurityException("回调对象不是" + method.getDeclaringClass().getName() + "的实例: " + targetId);
+            }
+            Object[] args = TaskCodec.deserializeArgs(readArgs(in), classLoader, argsFilter);
+            tasks.add(new TaskDefinition(new Date(time), method, target, args));
+            //发送方的节点视图与本节点不一致，之后的心跳中迁移
+            foreign[i] = !current.owner(keyHash(method, args)).equals(localAddress);
+        }
+
+        synchronized (appliedBatches) {
+            if(!appliedBatches.add(batchId)){
+                return;
+            }
+            appliedOrder.addLast(batchId);
+            if(appliedOrder.size() > APPLIED_BATCHES){
+                appliedBatches.remove(appliedOrder.removeFirst());
+            }
+            for(int i = 0; i < count; ++i){
+                TaskDefinition task = tasks.get(i);
+                try {
+                    addLocal(task.getTime(), task.getMethod(), task.getClazz(), task.getArgs(), onlyIfAbsent[i]);
+                } catch (RuntimeException ex) {
+                    //按本节点的上限策略拒绝，不影响同一批的其他任务
+                    continue;
+                }
+                received.increment();
+                if(foreign[i]){
+                    rebalanceNeeded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取回调方法，只接受setTaskMethods中的方法
+     */
+    private Method readTaskMethod(DataInputStream in, ClassLoader classLoader) throws Exception {
+        Method method = TaskCodec.readMethod(in, classLoader);
+        if(!taskMethods.contains(method)){
+            throw new SecurityException("不允许的回调方法: " + method);
+        }
+        return method;
+    }
+
+    private Object resolveTarget(String targetId, Method method){
+        Object target = targetResolver.resolve(targetId);
+        if(!method.getDeclaringClass().isInstance(target)){
+            throw new SecurityException("回调对象不是" + method.getDeclaringClass().getName() + "的实例: " + targetId);
+        }
+        return target;
+    }
+
+    /**
+     * 并行向已知节点发送心跳，最多等待failureTimeout，再按存活节点重建哈希环，需要时迁移任务
+     */
+    private void heartbeat(){
+        try {
+            byte[] body = encodeMembers();
+            List<Future<?>> pings = new ArrayList<>();
+            for(String member : members.keySet()){
+                //上一次心跳仍未返回的节点不再重复发送，按失效时间判断是否离开
+                if(pinging.add(member)){
+                    pings.add(pingExecutor.submit(() -> ping(member, body)));
+                }
+            }
+            long deadline = System.currentTimeMillis() + failureTimeout;
+            for(Future<?> ping : pings){
+                try {
+                    ping.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException ex) {
+                    //按失效时间判断是否离开
+                }
+            }
+            prune();
+            retryUnconfirmed();
+
+            List<String> alive = aliveMembers();
+            alive.add(localAddress);
+            HashRing current = ring;
+            if(alive.size() != current.getMembers().length || !current.contains(localAddress)
+                    || !containsAll(current, alive)){
+                ring = new HashRing(alive, virtualNodes);
+                rebalanceNeeded = true;
+            }
+            if(rebalanceNeeded){
+                rebalance();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException ex) {
+            //下一次心跳继续
+            rebalanceNeeded = true;
+        }
+    }
+
+    private void ping(String member, byte[] body){
+        try {
+            byte[] response = transport.request(member, PING, body);
+            Member state = members.get(member);
+            if(state != null){
+                state.lastSeen = System.currentTimeMillis();
+            }
+            learn(new DataInputStream(new ByteArrayInputStream(response)));
+        } catch (IOException ex) {
+            //按失效时间判断是否离开
+        } finally {
+            pinging.remove(member);
+        }
+    }
+
+    /**
+     * 移除超过failureTimeout没有通信的节点，种子节点保留以便恢复后重新加入
+     */
+    private void prune(){
+        long now = System.currentTimeMillis();
+        for(Iterator<Map.Entry<String, Member>> it = members.entrySet().iterator(); it.hasNext();){
+            Map.Entry<String, Member> entry = it.next();
+            Member member = entry.getValue();
+            if(!seeds.contains(entry.getKey()) && now - Math.max(member.lastSeen, member.learnedAt) > failureTimeout){
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean containsAll(HashRing ring, List<String> members){
+        for(String member : members){
+            if(!ring.contains(member)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 最近failureTimeout内通信成功的其他节点
+     */
+    private List<String> aliveMembers(){
+        long now = System.currentTimeMillis();
+        List<String> alive = new ArrayList<>();
+        for(Map.Entry<String, Member> entry : members.entrySet()){
+            if(now - entry.getValue().lastSeen <= failureTimeout){
+                alive.add(entry.getKey());
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * 记录对端与对端已知的节点
+     */
+    private void learn(DataInputStream in) throws IOException {
+        long now = System.currentTimeMillis();
+        String sender = in.readUTF();
+        if(!sender.equals(localAddress)){
+            members.computeIfAbsent(sender, k -> new Member(now)).lastSeen = now;
+        }
+        int count = in.readInt();
+        for(int i = 0; i < count; ++i){
+            String member = in.readUTF();
+            if(!member.equals(localAddress)){
+                members.computeIfAbsent(member, k -> new Member(now));
+            }
+        }
+    }
+
+    private byte[] encodeMembers() throws IOException {
+        List<String> alive = aliveMembers();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(localAddress);
+        out.writeInt(alive.size());
+        for(String member : alive){
+            out.writeUTF(member);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 把不属于本节点的任务迁移给归属节点：先从本节点删除，确认对端没有保存时放回
+     * <p>只迁移删除成功的任务，迁移期间到期的任务不会在两个节点各执行一次
+     */
+    private void rebalance(){
+        rebalanceNeeded = false;
+        HashRing current = ring;
+        Map<String, List<TaskDefinition>> moving = new HashMap<>();
+        for(TaskDefinition task : local.getObject().snapshot()){
+            String owner = current.owner(keyHash(task.getMethod(), task.getArgs()));
+            if(!owner.equals(localAddress)){
+                moving.computeIfAbsent(owner, k -> new ArrayList<>()).add(task);
+            }
+        }
+
+        for(Map.Entry<String, List<TaskDefinition>> entry : moving.entrySet()){
+            List<TaskDefinition> tasks = entry.getValue();
+            for(int from = 0; from < tasks.size(); from += batchSize){
+                if(!migrate(entry.getKey(), tasks.subList(from, Math.min(tasks.size(), from + batchSize)))){
+                    rebalanceNeeded = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean migrate(String owner, List<TaskDefinition> tasks){
+        List<TaskDefinition> removed = new ArrayList<>(tasks.size());
+        List<byte[]> encodedArgs = new ArrayList<>(tasks.size());
+        for(TaskDefinition task : tasks){
+            //已经到期或被删除的任务不再迁移
+            if(local.removeTask(task.getTime(), task.getMethod(), task.getClazz(), task.getArgs())){
+                removed.add(task);
+                encodedArgs.add(TaskCodec.serializeArgs(task.getArgs()));
+            }
+        }
+        if(removed.isEmpty()){
+            return true;
+        }
+        //归属节点已有相同任务时以归属节点为准
+        Batch batch = newBatch(owner, removed, encodedArgs, true, migrated);
+        int result = deliver(batch);
+        if(result == REJECTED){
+            restore(batch);
+        }
+        return result == DELIVERED;
+    }
+
+    private Batch newBatch(String owner, List<TaskDefinition> tasks, List<byte[]> encodedArgs, boolean onlyIfAbsent,
+                           LongAdder counter){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(tasks.size() * 64 + 20);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(incarnation);
+            out.writeLong(batchSequence.incrementAndGet());
+            out.writeInt(tasks.size());
+            for(int i = 0; i < tasks.size(); ++i){
+                TaskDefinition task = tasks.get(i);
+                writeTask(out, onlyIfAbsent, task.getTime().getTime(), targetResolver.identify(task.getClazz()),
+                        task.getMethod(), encodedArgs.get(i));
+            }
+            out.flush();
+            return new Batch(owner, bytes.toByteArray(), new ArrayList<>(tasks), onlyIfAbsent, counter);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * 发送批次，请求发出后失败的批次保留，之后的心跳中按原编号重试
+     */
+    private int deliver(Batch batch){
+        try {
+            transport.request(batch.owner, PUT, batch.body);
+            batch.counter.add(batch.tasks.size());
+            return DELIVERED;
+        } catch (ClusterTransport.NotSentException | ClusterTransport.RemoteException ex) {
+            return REJECTED;
+        } catch (IOException ex) {
+            unconfirmed.add(batch);
+            return UNCONFIRMED;
+        }
+    }
+
+    /**
+     * 按原编号重试未确认的批次；对端拒绝或归属节点已失效时放回本节点
+     * <p>失效节点在崩溃前可能已经保存了批次，其任务随该节点一起丢失，放回后只在本节点执行
+     */
+    private void retryUnconfirmed(){
+        List<String> alive = aliveMembers();
+        for(int n = unconfirmed.size(); n > 0; --n){
+            Batch batch = unconfirmed.poll();
+            if(batch == null){
+                return;
+            }
+            if(!alive.contains(batch.owner)){
+                restore(batch);
+                continue;
+            }
+            try {
+                transport.request(batch.owner, PUT, batch.body);
+                batch.counter.add(batch.tasks.size());
+            } catch (ClusterTransport.RemoteException ex) {
+                restore(batch);
+            } catch (IOException ex) {
+                //连接失败也可能是上一次请求已经保存，继续按原编号重试
+                unconfirmed.add(batch);
+            }
+        }
+    }
+
+    private void restore(Batch batch){
+        for(TaskDefinition task : batch.tasks){
+            addLocal(task.getTime(), task.getMethod(), task.getClazz(), task.getArgs(), batch.onlyIfAbsent);
+        }
+        rebalanceNeeded = true;
+    }
+
+    /**
+     * 任务键的哈希：回调方法签名与参数的hashCode，与容器判断相同任务的依据一致
+     */
+    private long keyHash(Method method, Object[] args){
+        byte[] signature = signatures.get(method);
+        if(signature == null){
+            signature = signature(method);
+            signatures.put(method, signature);
+        }
+        int h = argsHash(args);
+        byte[] key = Arrays.copyOf(signature, signature.length + 4);
+        key[signature.length] = (byte) (h >>> 24);
+        key[signature.length + 1] = (byte) (h >>> 16);
+        key[signature.length + 2] = (byte) (h >>> 8);
+        key[signature.length + 3] = (byte) h;
+        return HashRing.hash(key);
+    }
+
+    /**
+     * 与Arrays.hashCode相同的组合方式，枚举按类名与名称计算，各节点结果一致
+     */
+    private int argsHash(Object[] args){
+        if(args == null){
+            return 0;
+        }
+        int h = 1;
+        for(Object arg : args){
+            h = 31 * h + argHash(arg);
+        }
+        return h;
+    }
+
+    private int argHash(Object arg){
+        if(arg == null){
+            return 0;
+        }
+        if(arg instanceof Enum){
+            Enum<?> constant = (Enum<?>) arg;
+            return 31 * constant.getDeclaringClass().getName().hashCode() + constant.name().hashCode();
+        }
+        Class<?> type = arg.getClass();
+        if(!valueTypes.computeIfAbsent(type, PartitionedTaskScheduling::isValueType)){
+            throw new IllegalArgumentException("任务参数的hashCode在各节点不一致: " + type.getName());
+        }
+        return arg.hashCode();
+    }
+
+    /**
+     * 不是数组且覆盖了hashCode的类型
+     */
+    private static boolean isValueType(Class<?> type){
+        if(type.isArray()){
+            return false;
+        }
+        try {
+            return type.getMethod("hashCode").getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    private static byte[] signature(Method method){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            TaskCodec.writeMethod(out, method);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void writeTask(DataOutputStream out, boolean onlyIfAbsent, long time, String target,
+                                  Method method, byte[] encodedArgs) throws IOException {
+        out.writeBoolean(onlyIfAbsent);
+        out.writeLong(time);
+        out.writeUTF(target);
+        TaskCodec.writeMethod(out, method);
+        writeArgs(out, encodedArgs);
+    }
+
+    private static void writeArgs(DataOutputStream out, byte[] encodedArgs) throws IOException {
+        if(encodedArgs == null){
+            out.writeInt(-1);
+        }else{
+            out.writeInt(encodedArgs.length);
+            out.write(encodedArgs);
+        }
+    }
+
+    private static byte[] readArgs(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0){
+            return null;
+        }
+        if(length > in.available()){
+            throw new StreamCorruptedException("参数长度错误: " + length);
+        }
+        byte[] encodedArgs = new byte[length];
+        in.readFully(encodedArgs);
+        return encodedArgs;
+    }
+
+    /**
+     * 已知节点的通信时间
+     */
+    private static final class Member {
+        /**加入已知节点的时间(ms)*/
+        private final long learnedAt;
+        /**最近一次通信成功的时间(ms)，从未通信成功为0*/
+        private volatile long lastSeen;
+
+        Member(long learnedAt) {
+            this.learnedAt = learnedAt;
+        }
+    }
+
+    /**
+     * 一批发给同一节点的任务，编码后的内容在重试时不变
+     */
+    private static final class Batch {
+        private final String owner;
+        private final byte[] body;
+        private final List<TaskDefinition> tasks;
+        private final boolean onlyIfAbsent;
+        /**发送成功后累加的计数*/
+        private final LongAdder counter;
+
+        Batch(String owner, byte[] body, List<TaskDefinition> tasks, boolean onlyIfAbsent, LongAdder counter) {
+            this.owner = owner;
+            this.body = body;
+            this.tasks = tasks;
+            this.onlyIfAbsent = onlyIfAbsent;
+            this.counter = counter;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.sumavision.launcher.task.persistence;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.util.ClassUtils;
+
+/**
+ * <p>功能描述：以回调对象的类名作为标识，重启后按类型从容器中取回单例bean<p/>
+ * <p>回调对象必须是容器中该类型唯一的bean<p/>
+ * @author chen qi
+ */
+public class BeanFactoryTaskTargetResolver implements TaskTargetResolver, BeanFactoryAware {
+
+    private BeanFactory beanFactory;
+
+    private ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public String identify(Object target) {
+        //代理类取被代理的原始类
+        return ClassUtils.getUserClass(target).getName();
+    }
+
+    @Override
+    public Object resolve(String identity) {
+        try {
+            return this.beanFactory.getBean(ClassUtils.forName(identity, this.classLoader));
+        } catch (ClassNotFoundException | LinkageError ex) {
+            throw new IllegalStateException("无法加载回调对象类型: " + identity, ex);
+        }
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return this.classLoader;
+    }
+}
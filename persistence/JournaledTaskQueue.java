@@ -0,0 +1,568 @@
+package com.sumavision.launcher.task.persistence;
+
+import com.sumavision.launcher.task.support.AdmissionPolicy;
+import com.sumavision.launcher.task.support.Recurrence;
+import com.sumavision.launcher.task.support.ScheduledExecutorTask;
+import com.sumavision.launcher.task.support.ScheduledMethodRunnable;
+import com.sumavision.launcher.task.support.TaskColumns;
+import com.sumavision.launcher.task.support.TaskDefinition;
+import com.sumavision.launcher.task.support.TaskHandle;
+import com.sumavision.launcher.task.support.TaskQueue;
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：为任务容器记录预写日志，重启后从日志重建容器中尚未到期的任务<p/>
+ * <p>日志记录容器的实际结果：修改容器与写日志在同一把锁内完成，被拒绝、舍弃或由提交线程执行的任务不记录插入，
+ * 被替换、删除或超出上限被舍弃的任务由容器的删除通知按原执行时间记录删除；
+ * 同步写入时在锁外等待刷盘，并发的调用共用一次刷盘。
+ * 到期记录在任务交给线程池之前写入，重启后不会重复执行已取出的任务<p/>
+ * <p>容器需支持删除通知与按执行时间删除，重放删除与到期记录时按回调、参数与执行时间匹配相同任务中的一个，
+ * 找不到匹配的任务时视为日志损坏，跳过该记录并交给恢复线程的UncaughtExceptionHandler<p/>
+ * <p>日志不记录重复规则、优先级与通道，周期任务与带优先级或通道的schedule直接拒绝<p/>
+ * <p>容器的AdmissionPolicy不能是BLOCK或CALLER_RUNS：BLOCK在日志锁内等待空位，而到期取出也需要日志锁，只能等到超时；
+ * CALLER_RUNS会在日志锁内执行回调。创建与启动时检查<p/>
+ * <p>回调对象通过TaskTargetResolver保存为标识，参数必须可以序列化<p/>
+ * <p>设置快照文件后可以压缩：日志滚动为归档，同时复制容器写入快照，快照写完后删除归档。
+ * 启动时先加载快照一次建堆，再重放快照之后的归档与日志，有重放记录时立即压缩一次<p/>
+ * @author chen qi
+ */
+public class JournaledTaskQueue implements TaskQueue, InitializingBean, DisposableBean {
+
+    private final TaskQueue delegate;
+
+    private final TaskJournal journal;
+
+    private final TaskTargetResolver targetResolver;
+
+    /**保证写日志与修改容器的顺序一致*/
+    private final Object mutex = new Object();
+
+    private final List<ScheduledExecutorTask> expiredTasks = new ArrayList<>();
+
+    /**快照文件，为空时不压缩*/
+    private File snapshotFile;
+
+    /**定时压缩间隔(ms)，0表示不定时压缩*/
+    private long compactInterval = 0L;
+
+    /**定时压缩时日志记录的最小字节数*/
+    private long compactThreshold = 0L;
+
+    private final Object compactMonitor = new Object();
+
+    private ScheduledExecutorService compactExecutor;
+
+    private volatile IOException lastCompactException;
+
+    /**恢复时找不到匹配任务而跳过的删除与到期记录数*/
+    private volatile long skippedRecords;
+
+    /**当前操作最后追加的记录位置，在mutex内读写，0表示没有追加*/
+    private long appended;
+
+    /**
+     * @param delegate 实际存放任务的容器
+     * @param journal 日志
+     * @param targetResolver 回调对象标识转换
+     */
+    public JournaledTaskQueue(TaskQueue delegate, TaskJournal journal, TaskTargetResolver targetResolver) {
+        if (delegate == null || journal == null || targetResolver == null){ throw new NullPointerException();}
+        this.delegate = delegate;
+        this.journal = journal;
+        this.targetResolver = targetResolver;
+        //不支持删除通知的容器无法记录替换与舍弃
+        if(!delegate.supports(Feature.REMOVAL_TRACKING)){
+            throw new IllegalArgumentException(delegate.getClass().getSimpleName() + "不支持删除通知与按执行时间删除");
+        }
+        checkAdmissionPolicy();
+    }
+
+    /**
+     * 日志锁内不能等待空位或执行回调
+     */
+    private void checkAdmissionPolicy() {
+        AdmissionPolicy policy = delegate.getAdmissionPolicy();
+        if(policy == AdmissionPolicy.BLOCK || policy == AdmissionPolicy.CALLER_RUNS){
+            throw new IllegalStateException("JournaledTaskQueue不支持" + policy + "策略，请使用REJECT或DROP_FARTHEST");
+        }
+    }
+
+    /**
+     * 设置快照文件，设置后才能压缩
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * 设置定时压缩间隔(ms)，默认为0，即只在启动与调用compact时压缩
+     */
+    public void setCompactInterval(long compactInterval) {
+        if(compactInterval >= 0){
+            this.compactInterval = compactInterval;
+        }
+    }
+
+    /**
+     * 设置定时压缩时日志记录的最小字节数，不足时跳过本次压缩，默认为0
+     */
+    public void setCompactThreshold(long compactThreshold) {
+        if(compactThreshold >= 0){
+            this.compactThreshold = compactThreshold;
+        }
+    }
+
+    /**
+     * 最近一次定时压缩失败的原因，成功后清空
+     */
+    public IOException getLastCompactException() {
+        return lastCompactException;
+    }
+
+    /**
+     * 恢复时找不到匹配任务而跳过的删除与到期记录数
+     */
+    public long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    /**
+     * 加载快照，重放之后的日志到容器
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkAdmissionPolicy();
+        long covered = -1L;
+        if(snapshotFile != null && snapshotFile.exists()){
+            TaskSnapshot snapshot = TaskSnapshot.read(snapshotFile, targetResolver);
+            covered = snapshot.getGeneration();
+            //空容器批量插入，一次建堆
+            delegate.putAll(snapshot.getTasks(), true);
+        }
+
+        TaskJournal.RecordHandler handler = recoveryHandler();
+        long nextGeneration = covered + 1;
+        boolean replayed = false;
+        for(Map.Entry<Long, File> archive : archives().entrySet()){
+            if(archive.getKey() > covered){
+                TaskJournal.read(archive.getValue(), handler);
+                replayed = true;
+            }
+            nextGeneration = Math.max(nextGeneration, archive.getKey() + 1);
+        }
+
+        journal.open(handler, nextGeneration);
+        if(journal.getGeneration() <= covered){
+            journal.close();
+            throw new IllegalStateException("日志代号不晚于快照: " + journal.getFile());
+        }
+        //重放完成后才记录删除，重放本身不再写入日志
+        delegate.setRemovalListener((deadline, method, args) -> append(TaskJournal.REMOVE, deadline, null, method, args));
+
+        if(snapshotFile != null){
+            if(replayed || journal.getRecordBytes() > 0){
+                compact();
+            }
+            if(compactInterval > 0){
+                startCompactor();
+            }
+        }
+    }
+
+    private TaskJournal.RecordHandler recoveryHandler() {
+        final Map<String, Object> targets = new HashMap<>();
+        final ClassLoader classLoader = targetResolver.getClassLoader();
+        return record -> {
+            Method method = record.resolveMethod(classLoader);
+            Object[] args = record.resolveArgs(classLoader);
+            switch (record.getType()) {
+                case TaskJournal.PUT:
+                    Object target = targets.computeIfAbsent(record.getTarget(), targetResolver::resolve);
+                    delegate.put(new Date(record.getDeadline()), method, target, args);
+                    break;
+                case TaskJournal.REMOVE:
+                case TaskJournal.FIRE:
+                    //相同任务可能有多个，按执行时间匹配；没有匹配说明之前的记录缺失，不按任务删除其他执行时间的任务
+                    if(!delegate.removeExact(record.getDeadline(), method, args)){
+                        ++skippedRecords;
+                        Thread current = Thread.currentThread();
+                        current.getUncaughtExceptionHandler().uncaughtException(current, new IllegalStateException(
+                                "日志记录没有匹配的任务，已跳过: type " + record.getType() + ", deadline "
+                                        + record.getDeadline() + ", method " + method));
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("未知的日志记录类型: " + record.getType());
+            }
+        };
+    }
+
+    /**
+     * 压缩：日志滚动为归档并复制容器，写入快照后删除已覆盖的归档
+     * <p>只在按列复制容器与滚动日志时持有锁，锁内不为每个任务创建对象，快照在锁外写入
+     */
+    public void compact() throws IOException {
+        if(snapshotFile == null){
+            throw new IllegalStateException("未设置快照文件");
+        }
+        synchronized (compactMonitor) {
+            TaskColumns tasks;
+            long generation;
+            synchronized (mutex) {
+                tasks = delegate.snapshotColumns();
+                generation = journal.getGeneration();
+                journal.rollover(archiveFile(generation));
+            }
+            TaskSnapshot.write(snapshotFile, generation, tasks, targetResolver);
+            for(Map.Entry<Long, File> archive : archives().entrySet()){
+                if(archive.getKey() <= generation){
+                    archive.getValue().delete();
+                }
+            }
+        }
+    }
+
+    private void startCompactor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskCompact-");
+        threadFactory.setDaemon(true);
+        compactExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        compactExecutor.scheduleWithFixedDelay(() -> {
+            long bytes = journal.getRecordBytes();
+            if(bytes == 0 || bytes < compactThreshold){
+                return;
+            }
+            try {
+                compact();
+                lastCompactException = null;
+            } catch (IOException ex) {
+                //保留归档与原快照，下次继续尝试
+                lastCompactException = ex;
+            }
+        }, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private File archiveFile(long generation) {
+        File file = journal.getFile();
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + "." + generation);
+    }
+
+    /**
+     * 查找日志归档，文件名为日志文件名加代号
+     * @return 按代号排序的归档
+     */
+    private SortedMap<Long, File> archives() {
+        SortedMap<Long, File> archives = new TreeMap<>();
+        File file = journal.getFile().getAbsoluteFile();
+        String prefix = file.getName() + ".";
+        File[] files = file.getParentFile().listFiles();
+        if(files == null){
+            return archives;
+        }
+        for(File candidate : files){
+            String name = candidate.getName();
+            if(!name.startsWith(prefix)){
+                continue;
+            }
+            try {
+                archives.put(Long.parseLong(name.substring(prefix.length())), candidate);
+            } catch (NumberFormatException ex) {
+                //不是归档
+            }
+        }
+        return archives;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if(compactExecutor != null){
+            compactExecutor.shutdownNow();
+        }
+        journal.close();
+    }
+
+    /**
+     * 只转发任务句柄，其他可选操作不经过日志
+     */
+    @Override
+    public boolean supports(Feature feature) {
+        return feature == Feature.HANDLES && delegate.supports(feature);
+    }
+
+    /**
+     * 日志不记录重复规则，重启后无法恢复为周期任务
+     */
+    @Override
+    public boolean put(Date time, Method method, Object clazz, Object[] args, Recurrence recurrence) {
+        throw new UnsupportedOperationException("JournaledTaskQueue不记录重复规则，不支持周期任务");
+    }
+
+    /**
+     * 日志不记录优先级与通道，重启后无法恢复
+     */
+    @Override
+    public TaskHandle schedule(Date time, Method method, Object clazz, Object[] args, int priority, String lane) {
+        throw new UnsupportedOperationException("JournaledTaskQueue不记录优先级与通道");
+    }
+
+    @Override
+    public AdmissionPolicy getAdmissionPolicy() {
+        return delegate.getAdmissionPolicy();
+    }
+
+    /**
+     * 容器中没有周期任务，仍转发给容器，保证通知与容器一致
+     */
+    @Override
+    public void setRescheduleListener(RescheduleListener listener) {
+        delegate.setRescheduleListener(listener);
+    }
+
+    @Override
+    public boolean put(Date time, Method method, Object clazz, Object[] args) {
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        String target = targetResolver.identify(clazz);
+        long position;
+        boolean result;
+        synchronized (mutex) {
+            appended = 0L;
+            result = delegate.put(time, method, clazz, args);
+            if(result){
+                append(TaskJournal.PUT, time.getTime(), target, method, args);
+            }
+            position = appended;
+        }
+        commit(position);
+        return result;
+    }
+
+    @Override
+    public TaskHandle schedule(Date time, Method method, Object clazz, Object[] args) {
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        String target = targetResolver.identify(clazz);
+        long position;
+        TaskHandle handle;
+        synchronized (mutex) {
+            appended = 0L;
+            handle = delegate.schedule(time, method, clazz, args);
+            if(handle != null){
+                append(TaskJournal.PUT, time.getTime(), target, method, args);
+            }
+            position = appended;
+        }
+        commit(position);
+        return handle;
+    }
+
+    /**
+     * 容器通知按原执行时间删除，调整成功后按新的执行时间记录插入
+     * <p>插入记录不带优先级与通道，重放时按默认值恢复；带优先级或通道的schedule已被拒绝，能调整的任务都是默认值，不会丢失
+     */
+    @Override
+    public boolean reschedule(TaskHandle handle, long deadline) {
+        String target = targetResolver.identify(handle.getClazz());
+        long position;
+        boolean rescheduled;
+        synchronized (mutex) {
+            appended = 0L;
+            rescheduled = delegate.reschedule(handle, deadline);
+            if(rescheduled){
+                append(TaskJournal.PUT, deadline, target, handle.getMethod(), handle.getArgs());
+            }
+            position = appended;
+        }
+        commit(position);
+        return rescheduled;
+    }
+
+    /**
+     * 超时只保存在内存中，不写入日志，恢复后使用默认超时
+     */
+    @Override
+    public boolean setTimeout(TaskHandle handle, long timeout) {
+        return delegate.setTimeout(handle, timeout);
+    }
+
+    /**
+     * 需要按插入结果写日志，不使用容器的无锁提交，在锁内删除原有任务后插入
+     */
+    @Override
+    public void offer(Date time, Method method, Object clazz, Object[] args, boolean onlyIfAbsent) {
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        String target = targetResolver.identify(clazz);
+        long position;
+        synchronized (mutex) {
+            appended = 0L;
+            submit(time, method, clazz, args, target, onlyIfAbsent);
+            position = appended;
+        }
+        commit(position);
+    }
+
+    /**
+     * 在一次锁内逐个提交，只记录实际插入的任务
+     */
+    @Override
+    public int putAll(Collection<? extends TaskDefinition> tasks, boolean onlyIfAbsent) {
+        String[] targets = new String[tasks.size()];
+        int i = 0;
+        for(TaskDefinition task : tasks){
+            targets[i++] = targetResolver.identify(task.getClazz());
+        }
+        long position;
+        int count = 0;
+        synchronized (mutex) {
+            appended = 0L;
+            i = 0;
+            for(TaskDefinition task : tasks){
+                if(submit(task.getTime(), task.getMethod(), task.getClazz(), task.getArgs(), targets[i++], onlyIfAbsent)){
+                    ++count;
+                }
+            }
+            position = appended;
+        }
+        commit(position);
+        return count;
+    }
+
+    /**
+     * 提交一个任务，调用方需持有mutex
+     * @return 是否插入
+     */
+    private boolean submit(Date time, Method method, Object clazz, Object[] args, String target, boolean onlyIfAbsent) {
+        if(!onlyIfAbsent){
+            //被替换的任务由删除通知记录
+            delegate.remove(time, method, clazz, args);
+        }
+        if(!delegate.put(time, method, clazz, args)){
+            return false;
+        }
+        append(TaskJournal.PUT, time.getTime(), target, method, args);
+        return true;
+    }
+
+    @Override
+    public boolean removeHead() {
+        long position;
+        synchronized (mutex) {
+            if(delegate.size() == 0){
+                return false;
+            }
+            ScheduledExecutorTask head = delegate.getHeadTask();
+            if(!delegate.removeHead()){
+                return false;
+            }
+            position = appendFire(head);
+        }
+        commit(position);
+        return true;
+    }
+
+    /**
+     * 删除记录由容器的删除通知按被删除任务的执行时间写入
+     */
+    @Override
+    public int remove(Date time, Method method, Object clazz, Object[] args) {
+        long position;
+        int index;
+        synchronized (mutex) {
+            appended = 0L;
+            index = delegate.remove(time, method, clazz, args);
+            position = appended;
+        }
+        commit(position);
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public int compareFirstTime(Date time) {
+        return delegate.compareFirstTime(time);
+    }
+
+    @Override
+    public ScheduledExecutorTask getHeadTask() {
+        return delegate.getHeadTask();
+    }
+
+    @Override
+    public long nextDeadline() {
+        return delegate.nextDeadline();
+    }
+
+    @Override
+    public int drainExpired(long now, Collection<? super ScheduledExecutorTask> sink) {
+        long position = 0L;
+        int count;
+        synchronized (mutex) {
+            count = delegate.drainExpired(now, expiredTasks);
+            try {
+                for(ScheduledExecutorTask task : expiredTasks){
+                    position = appendFire(task);
+                }
+                sink.addAll(expiredTasks);
+            } finally {
+                expiredTasks.clear();
+            }
+        }
+        if(count > 0){
+            journal.commit(position);
+        }
+        return count;
+    }
+
+    @Override
+    public List<TaskDefinition> snapshot() {
+        return delegate.snapshot();
+    }
+
+    @Override
+    public TaskColumns snapshotColumns() {
+        return delegate.snapshotColumns();
+    }
+
+    @Override
+    public long getTickDuration() {
+        return delegate.getTickDuration();
+    }
+
+    public TaskQueue getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * 到期记录使用任务的执行时间，重放时与相同任务中的其他任务区分
+     */
+    private long appendFire(ScheduledExecutorTask task) {
+        ScheduledMethodRunnable runnable = (ScheduledMethodRunnable) task.getRunnable();
+        Long time = runnable.getTime();
+        long deadline = time != null ? time : System.currentTimeMillis() + task.getDelay();
+        return append(TaskJournal.FIRE, deadline, null, runnable.getMethod(), runnable.getArgs());
+    }
+
+    /**
+     * 追加记录并保存位置，调用方需持有mutex
+     */
+    private long append(byte type, long deadline, String target, Method method, Object[] args) {
+        return appended = journal.append(type, deadline, target, method, args);
+    }
+
+    private void commit(long position) {
+        if(position > 0L){
+            journal.commit(position);
+        }
+    }
+}
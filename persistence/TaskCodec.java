@@ -0,0 +1,218 @@
+package com.sumavision.launcher.task.persistence;
+
+import org.springframework.util.ClassUtils;
+
+import java.io.*;
+import java.lang.reflect.Method;
+
+/**
+ * <p>功能描述：日志、快照与集群通信共用的回调方法、参数编码<p/>
+ * @author chen qi
+ */
+public final class TaskCodec {
+    /**参数编码方式*/
+    private static final byte COMPACT = 0;
+    private static final byte SERIALIZED = 1;
+    /**逐个写入时的参数类型*/
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHAR = 9;
+
+    /**
+     * 来自其他节点的参数使用的反序列化白名单：只允许JDK的常用值类型，限制深度、引用数与长度
+     */
+    public static final ObjectInputFilter DEFAULT_ARGS_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxrefs=10000;maxbytes=16777216;maxarray=1000000;"
+                    + "java.lang.*;java.util.*;java.time.*;java.math.*;!*");
+
+    private TaskCodec() {
+    }
+
+    /**
+     * 写入回调方法所在类、方法名与参数类型
+     */
+    public static void writeMethod(DataOutput out, Method method) throws IOException {
+        out.writeUTF(method.getDeclaringClass().getName());
+        out.writeUTF(method.getName());
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        out.writeShort(parameterTypes.length);
+        for(Class<?> parameterType : parameterTypes){
+            out.writeUTF(parameterType.getName());
+        }
+    }
+
+    /**
+     * 读取writeMethod写入的内容并找到回调方法
+     */
+    public static Method readMethod(DataInput in, ClassLoader classLoader) throws IOException, ClassNotFoundException, NoSuchMethodException {
+        String className = in.readUTF();
+        String methodName = in.readUTF();
+        String[] parameterTypes = new String[in.readUnsignedShort()];
+        for(int i = 0; i < parameterTypes.length; ++i){
+            parameterTypes[i] = in.readUTF();
+        }
+        return resolveMethod(className, methodName, parameterTypes, classLoader);
+    }
+
+    /**
+     * 按类名、方法名与参数类型找到回调方法，包括父类中声明的方法
+     */
+    static Method resolveMethod(String className, String methodName, String[] parameterTypes, ClassLoader classLoader)
+            throws ClassNotFoundException, NoSuchMethodException {
+        Class<?>[] types = new Class<?>[parameterTypes.length];
+        for(int i = 0; i < types.length; ++i){
+            types[i] = ClassUtils.forName(parameterTypes[i], classLoader);
+        }
+        for(Class<?> clazz = ClassUtils.forName(className, classLoader); clazz != null; clazz = clazz.getSuperclass()){
+            try {
+                return clazz.getDeclaredMethod(methodName, types);
+            } catch (NoSuchMethodException ex) {
+                //继续查找父类
+            }
+        }
+        throw new NoSuchMethodException(className + "." + methodName);
+    }
+
+    /**
+     * 序列化参数，只包含null、字符串、基本类型包装类时逐个写入，否则使用Java序列化
+     * @return 参数为null时返回null
+     */
+    public static byte[] serializeArgs(Object[] args) {
+        if(args == null){
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            if(writeCompactArgs(out, args)){
+                out.flush();
+                return bytes.toByteArray();
+            }
+            bytes.reset();
+            bytes.write(SERIALIZED);
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(args);
+            }
+            return bytes.toByteArray();
+        } catch (NotSerializableException ex) {
+            throw new IllegalArgumentException("任务参数不能序列化: " + ex.getMessage(), ex);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * 反序列化参数，使用进程级的反序列化过滤，只用于本节点写入的日志与快照
+     */
+    public static Object[] deserializeArgs(byte[] args, final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        return deserializeArgs(args, classLoader, null);
+    }
+
+    /**
+     * 反序列化参数
+     * @param filter 反序列化过滤，来自不可信来源的参数必须设置；为null时使用进程级的过滤
+     */
+    public static Object[] deserializeArgs(byte[] args, final ClassLoader classLoader, ObjectInputFilter filter)
+            throws IOException, ClassNotFoundException {
+        if(args == null){
+            return null;
+        }
+        if(args[0] == COMPACT){
+            return readCompactArgs(new DataInputStream(new ByteArrayInputStream(args, 1, args.length - 1)));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(args, 1, args.length - 1)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return ClassUtils.forName(desc.getName(), classLoader);
+                } catch (ClassNotFoundException ex) {
+                    return super.resolveClass(desc);
+                }
+            }
+        }) {
+            if(filter != null){
+                in.setObjectInputFilter(filter);
+            }
+            return (Object[]) in.readObject();
+        }
+    }
+
+    /**
+     * @return 有不支持的参数类型时返回false
+     */
+    private static boolean writeCompactArgs(DataOutputStream out, Object[] args) throws IOException {
+        if(args.getClass() != Object[].class){
+            return false;
+        }
+        out.writeByte(COMPACT);
+        out.writeInt(args.length);
+        for(Object arg : args){
+            if(arg == null){
+                out.writeByte(NULL);
+            }else if(arg instanceof String){
+                String value = (String) arg;
+                //writeUTF最多65535字节
+                if(value.length() > 0x3FFF){
+                    return false;
+                }
+                out.writeByte(STRING);
+                out.writeUTF(value);
+            }else if(arg instanceof Integer){
+                out.writeByte(INT);
+                out.writeInt((Integer) arg);
+            }else if(arg instanceof Long){
+                out.writeByte(LONG);
+                out.writeLong((Long) arg);
+            }else if(arg instanceof Boolean){
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) arg);
+            }else if(arg instanceof Double){
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) arg);
+            }else if(arg instanceof Float){
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) arg);
+            }else if(arg instanceof Short){
+                out.writeByte(SHORT);
+                out.writeShort((Short) arg);
+            }else if(arg instanceof Byte){
+                out.writeByte(BYTE);
+                out.writeByte((Byte) arg);
+            }else if(arg instanceof Character){
+                out.writeByte(CHAR);
+                out.writeChar((Character) arg);
+            }else{
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object[] readCompactArgs(DataInputStream in) throws IOException {
+        Object[] args = new Object[in.readInt()];
+        for(int i = 0; i < args.length; ++i){
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL: break;
+                case STRING: args[i] = in.readUTF(); break;
+                case INT: args[i] = in.readInt(); break;
+                case LONG: args[i] = in.readLong(); break;
+                case BOOLEAN: args[i] = in.readBoolean(); break;
+                case DOUBLE: args[i] = in.readDouble(); break;
+                case FLOAT: args[i] = in.readFloat(); break;
+                case SHORT: args[i] = in.readShort(); break;
+                case BYTE: args[i] = in.readByte(); break;
+                case CHAR: args[i] = in.readChar(); break;
+                default: throw new StreamCorruptedException("未知的参数类型: " + tag);
+            }
+        }
+        return args;
+    }
+}
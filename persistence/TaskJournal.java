@@ -0,0 +1,528 @@
+package com.sumavision.launcher.task.persistence;
+
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>功能描述：任务预写日志，记录通过内存映射文件追加，由刷盘线程合并提交<p/>
+ * <p>文件格式：文件头(魔数、版本、代号)之后依次为记录，每条记录为
+ * [长度int][类型byte][内容][CRC32 int]，最后一条记录之后写入长度0作为结束标记。
+ * 重放时遇到长度0或校验失败即停止，之后的内容视为未完成的写入<p/>
+ * <p>同步写入时追加线程等待刷盘线程完成一次force，并发追加的记录共用一次force<p/>
+ * <p>压缩时日志滚动为归档文件，新文件代号加一，快照记录其覆盖到的代号<p/>
+ * @author chen qi
+ */
+public class TaskJournal implements Closeable {
+    /**插入任务*/
+    public static final byte PUT = 1;
+    /**删除任务*/
+    public static final byte REMOVE = 3;
+    /**任务到期取出*/
+    public static final byte FIRE = 4;
+
+    private static final int MAGIC = 0x544A524E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /**长度、类型、校验和所占字节*/
+    private static final int RECORD_OVERHEAD = 9;
+    /**默认映射大小16M，写满后按两倍扩展*/
+    private static final int DEFAULT_MAPPED_SIZE = 16 << 20;
+
+    private final File file;
+    private int mappedSize = DEFAULT_MAPPED_SIZE;
+    /**是否等待刷盘后才返回，默认是"true"*/
+    private boolean syncWrites = true;
+    /**刷盘间隔(ms)，同步写入时追加会立即唤醒刷盘线程*/
+    private long flushInterval = 10L;
+
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private volatile long generation;
+    /**下一条记录在当前文件中的写入位置，只在appendLock内修改*/
+    private volatile long writePosition;
+    /**此前各代文件的长度之和，使commit使用的位置跨滚动单调递增*/
+    private volatile long logicalBase;
+    /**已经force的位置(含logicalBase)*/
+    private volatile long flushedPosition;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    /**force与滚动互斥，先取appendLock再取flushLock*/
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Object flushMonitor = new Object();
+    private volatile boolean running;
+    private Thread flusher;
+
+    /**
+     * @param file 日志文件，不存在时创建
+     */
+    public TaskJournal(File file) {
+        if(file == null){ throw new NullPointerException();}
+        this.file = file;
+    }
+
+    /**
+     * 设置初始映射大小(byte)，默认16M
+     */
+    public void setMappedSize(int mappedSize) {
+        if(mappedSize > HEADER_SIZE){
+            this.mappedSize = mappedSize;
+        }
+    }
+
+    /**
+     * 设置追加后是否等待刷盘，默认是"true"
+     * <p>为"false"时只保证进程崩溃后记录不丢失(页缓存仍在)，机器掉电可能丢失最近一个刷盘间隔的记录
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * 设置刷盘间隔(ms)，默认10ms
+     */
+    public void setFlushInterval(long flushInterval) {
+        if(flushInterval > 0){
+            this.flushInterval = flushInterval;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * 当前文件中记录所占字节
+     */
+    public long getRecordBytes() {
+        return running ? writePosition - HEADER_SIZE : 0L;
+    }
+
+    /**
+     * 打开日志，按顺序重放已有记录后启动刷盘线程
+     * @param handler 接收重放的记录，为null时不重放
+     * @param generation 文件不存在时新文件使用的代号
+     */
+    public synchronized void open(RecordHandler handler, long generation) throws IOException {
+        if(running){
+            throw new IllegalStateException("日志已打开");
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()){
+            throw new IOException("无法创建目录: " + parent);
+        }
+        map(generation);
+        if(handler != null && writePosition > HEADER_SIZE){
+            replay(buffer, handler);
+        }
+        flushedPosition = logicalBase + writePosition;
+
+        running = true;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskJournal-");
+        threadFactory.setDaemon(true);
+        flusher = threadFactory.newThread(this::flushLoop);
+        flusher.start();
+    }
+
+    /**
+     * 打开当前文件并定位到最后一条完整记录之后
+     */
+    private void map(long newGeneration) throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        if(fileSize > Integer.MAX_VALUE){
+            channel.close();
+            throw new IOException("日志文件过大: " + file);
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(mappedSize, fileSize));
+
+        long position;
+        if(fileSize < HEADER_SIZE || buf.getInt(0) == 0){
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putLong(8, newGeneration);
+            generation = newGeneration;
+            position = HEADER_SIZE;
+        }else{
+            if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION){
+                channel.close();
+                throw new IOException("不是任务日志文件: " + file);
+            }
+            generation = buf.getLong(8);
+            position = scan(buf);
+        }
+        if(position + 4 <= buf.capacity()){
+            buf.putInt((int) position, 0);
+        }
+        buf.force();
+        buffer = buf;
+        writePosition = position;
+    }
+
+    /**
+     * 只读方式重放日志文件，用于恢复滚动后尚未被快照覆盖的归档
+     * @param file 日志文件
+     * @param handler 接收记录
+     * @return 文件代号
+     */
+    public static long read(File file, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if(fileSize > Integer.MAX_VALUE){
+                throw new IOException("日志文件过大: " + file);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if(fileSize < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION){
+                throw new IOException("不是任务日志文件: " + file);
+            }
+            replay(buf, handler);
+            return buf.getLong(8);
+        }
+    }
+
+    /**
+     * 读取文件代号
+     */
+    public static long readGeneration(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("不是任务日志文件: " + file);
+            }
+            return in.readLong();
+        }
+    }
+
+    /**
+     * @return 最后一条完整记录之后的位置
+     */
+    private static long scan(ByteBuffer buf) throws IOException {
+        return replay(buf, null);
+    }
+
+    /**
+     * 重放记录
+     * @return 最后一条完整记录之后的位置
+     */
+    private static long replay(ByteBuffer buf, RecordHandler handler) throws IOException {
+        int limit = buf.capacity();
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while(position + RECORD_OVERHEAD <= limit){
+            int length = buf.getInt(position);
+            if(length <= 0 || length > limit - position - RECORD_OVERHEAD){
+                break;
+            }
+            byte type = buf.get(position + 4);
+            byte[] body = new byte[length];
+            buf.position(position + 5);
+            buf.get(body);
+            crc.reset();
+            crc.update(type);
+            crc.update(body, 0, length);
+            if((int) crc.getValue() != buf.getInt(position + 5 + length)){
+                break;
+            }
+            if(handler != null){
+                try {
+                    handler.handle(decode(type, body));
+                } catch (IOException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new IOException("重放日志记录失败, position: " + position, ex);
+                }
+            }
+            position += RECORD_OVERHEAD + length;
+        }
+        return position;
+    }
+
+    /**
+     * 追加记录
+     * @param type 记录类型
+     * @param deadline 执行时间(ms)
+     * @param target 回调对象标识，删除与到期记录可以为null
+     * @param method 回调方法
+     * @param args 参数，必须可以序列化
+     * @return 记录结束位置，用于commit
+     */
+    public long append(byte type, long deadline, String target, Method method, Object[] args) {
+        byte[] body = encode(deadline, target, method, args);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body, 0, body.length);
+        int recordSize = RECORD_OVERHEAD + body.length;
+
+        final ReentrantLock appendLock = this.appendLock;
+        appendLock.lock();
+        try {
+            if(!running){
+                throw new IllegalStateException("日志未打开");
+            }
+            long position = writePosition;
+            ensureMapped(position + recordSize + 4);
+            MappedByteBuffer buf = buffer;
+            //先写内容后写长度，崩溃时残缺的记录长度为0或校验失败
+            buf.position((int) position + 4);
+            buf.put(type);
+            buf.put(body);
+            buf.putInt((int) crc.getValue());
+            buf.putInt(0);
+            buf.putInt((int) position, body.length);
+            writePosition = position + recordSize;
+            return logicalBase + writePosition;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 同步写入时等待记录刷盘，多个线程等待同一次force
+     * @param position append返回的位置
+     */
+    public void commit(long position) {
+        if(!syncWrites || flushedPosition >= position){
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+            while(running && flushedPosition < position){
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 将当前文件刷盘后移动为归档文件，并以下一个代号创建新文件
+     * <p>调用方需保证滚动与读取容器快照之间没有其他写入
+     * @param archive 归档文件
+     * @return 归档文件的代号
+     */
+    public long rollover(File archive) throws IOException {
+        final ReentrantLock appendLock = this.appendLock;
+        appendLock.lock();
+        try {
+            if(!running){
+                throw new IllegalStateException("日志未打开");
+            }
+            flushLock.lock();
+            try {
+                long archived = generation;
+                long end = writePosition;
+                buffer.force();
+                channel.close();
+                Files.move(file.toPath(), archive.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logicalBase += end;
+                map(archived + 1);
+                synchronized (flushMonitor) {
+                    flushedPosition = logicalBase + writePosition;
+                    flushMonitor.notifyAll();
+                }
+                return archived;
+            } finally {
+                flushLock.unlock();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 刷盘线程：有新记录时force，完成后唤醒等待的追加线程
+     */
+    private void flushLoop() {
+        while(running){
+            synchronized (flushMonitor) {
+                if(logicalBase + writePosition <= flushedPosition){
+                    try {
+                        flushMonitor.wait(flushInterval);
+                    } catch (InterruptedException ex) {
+                        //关闭时中断
+                    }
+                }
+            }
+            flush();
+        }
+    }
+
+    private void flush() {
+        final ReentrantLock flushLock = this.flushLock;
+        flushLock.lock();
+        try {
+            //先读位置再读映射，扩展映射后写入的记录一定在新映射中
+            long target = logicalBase + writePosition;
+            MappedByteBuffer buf = buffer;
+            if(target <= flushedPosition || buf == null){
+                return;
+            }
+            buf.force();
+            synchronized (flushMonitor) {
+                flushedPosition = target;
+                flushMonitor.notifyAll();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 映射区不足时按两倍扩展重新映射整个文件
+     * @param required 需要的大小
+     */
+    private void ensureMapped(long required) {
+        int capacity = buffer.capacity();
+        if(required <= capacity){
+            return;
+        }
+        long newCapacity = Math.max((long) capacity << 1, required);
+        if(newCapacity > Integer.MAX_VALUE){
+            if(required > Integer.MAX_VALUE){
+                throw new IllegalStateException("任务日志已满: " + file);
+            }
+            newCapacity = Integer.MAX_VALUE;
+        }
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("扩展任务日志失败: " + file, ex);
+        }
+    }
+
+    /**
+     * 刷盘后关闭日志
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(!running){
+            return;
+        }
+        appendLock.lock();
+        try {
+            running = false;
+        } finally {
+            appendLock.unlock();
+        }
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        buffer = null;
+        channel.close();
+    }
+
+    private static byte[] encode(long deadline, String target, Method method, Object[] args) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(deadline);
+            out.writeUTF(target != null ? target : "");
+            TaskCodec.writeMethod(out, method);
+            byte[] argBytes = TaskCodec.serializeArgs(args);
+            if(argBytes == null){
+                out.writeInt(-1);
+            }else{
+                out.writeInt(argBytes.length);
+                out.write(argBytes);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Record decode(byte type, byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        Record record = new Record();
+        record.type = type;
+        record.deadline = in.readLong();
+        String target = in.readUTF();
+        record.target = target.isEmpty() ? null : target;
+        record.className = in.readUTF();
+        record.methodName = in.readUTF();
+        String[] parameterTypes = new String[in.readUnsignedShort()];
+        for(int i = 0; i < parameterTypes.length; ++i){
+            parameterTypes[i] = in.readUTF();
+        }
+        record.parameterTypes = parameterTypes;
+        int argsLength = in.readInt();
+        if(argsLength >= 0){
+            record.args = new byte[argsLength];
+            in.readFully(record.args);
+        }
+        return record;
+    }
+
+    /**
+     * 接收重放的记录
+     */
+    public interface RecordHandler {
+        void handle(Record record) throws Exception;
+    }
+
+    /**
+     * 日志记录，回调方法与参数在重放时按类加载器解析
+     */
+    public static final class Record {
+        private byte type;
+        private long deadline;
+        private String target;
+        private String className;
+        private String methodName;
+        private String[] parameterTypes;
+        private byte[] args;
+
+        public byte getType() {
+            return type;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * 按类名、方法名与参数类型找到回调方法，包括父类中声明的方法
+         */
+        public Method resolveMethod(ClassLoader classLoader) throws ClassNotFoundException, NoSuchMethodException {
+            return TaskCodec.resolveMethod(className, methodName, parameterTypes, classLoader);
+        }
+
+        /**
+         * 反序列化参数
+         */
+        public Object[] resolveArgs(ClassLoader classLoader) throws IOException, ClassNotFoundException {
+            return TaskCodec.deserializeArgs(args, classLoader);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.sumavision.launcher.task.persistence;
+
+import com.sumavision.launcher.task.support.TaskColumns;
+import com.sumavision.launcher.task.support.TaskDefinition;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <p>功能描述：容器快照，按列存放所有任务，加载后通过putAll一次建堆<p/>
+ * <p>文件格式：[魔数int][版本int][覆盖到的日志代号long][任务数int]
+ * [方法表][回调对象表][执行时间列long[]][方法下标列int[]][回调对象下标列int[]]
+ * [参数列，每个任务为长度int与序列化内容][CRC32 long]。
+ * 回调方法与回调对象在表中只保存一次，任务列只保存下标<p/>
+ * <p>先写临时文件，刷盘后原子替换，写入中途崩溃不影响已有快照<p/>
+ * @author chen qi
+ */
+public final class TaskSnapshot {
+
+    private static final int MAGIC = 0x54534E50;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final long generation;
+
+    private final List<TaskDefinition> tasks;
+
+    private TaskSnapshot(long generation, List<TaskDefinition> tasks) {
+        this.generation = generation;
+        this.tasks = tasks;
+    }
+
+    /**
+     * 快照覆盖到的日志代号，不大于该代号的日志均已包含在快照中
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public List<TaskDefinition> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * 写入快照
+     * @param file 快照文件
+     * @param generation 覆盖到的日志代号
+     * @param tasks 任务
+     * @param targetResolver 回调对象标识转换
+     */
+    public static void write(File file, long generation, List<TaskDefinition> tasks, TaskTargetResolver targetResolver) throws IOException {
+        write(file, generation, TaskColumns.of(tasks), targetResolver);
+    }
+
+    /**
+     * 按列写入快照
+     * @param file 快照文件
+     * @param generation 覆盖到的日志代号
+     * @param tasks 任务列
+     * @param targetResolver 回调对象标识转换
+     */
+    public static void write(File file, long generation, TaskColumns tasks, TaskTargetResolver targetResolver) throws IOException {
+        int count = tasks.size();
+        Map<Method, Integer> methods = new LinkedHashMap<>();
+        Map<Object, Integer> targetIndex = new IdentityHashMap<>();
+        List<String> targets = new ArrayList<>();
+        Map<String, Integer> targetIds = new HashMap<>();
+        int[] methodColumn = new int[count];
+        int[] targetColumn = new int[count];
+        int i;
+        for(i = 0; i < count; ++i){
+            Method method = tasks.getMethod(i);
+            Integer m = methods.get(method);
+            if(m == null){
+                m = methods.size();
+                methods.put(method, m);
+            }
+            Object target = tasks.getClazz(i);
+            Integer t = targetIndex.get(target);
+            if(t == null){
+                String identity = targetResolver.identify(target);
+                t = targetIds.get(identity);
+                if(t == null){
+                    t = targets.size();
+                    targets.add(identity);
+                    targetIds.put(identity, t);
+                }
+                targetIndex.put(target, t);
+            }
+            methodColumn[i] = m;
+            targetColumn[i] = t;
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()){
+            throw new IOException("无法创建目录: " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(count);
+
+            out.writeInt(methods.size());
+            for(Method method : methods.keySet()){
+                TaskCodec.writeMethod(out, method);
+            }
+            out.writeInt(targets.size());
+            for(String target : targets){
+                out.writeUTF(target);
+            }
+
+            for(i = 0; i < count; ++i){
+                out.writeLong(tasks.getDeadline(i));
+            }
+            for(i = 0; i < count; ++i){
+                out.writeInt(methodColumn[i]);
+            }
+            for(i = 0; i < count; ++i){
+                out.writeInt(targetColumn[i]);
+            }
+            for(i = 0; i < count; ++i){
+                byte[] arg = TaskCodec.serializeArgs(tasks.getArgs(i));
+                if(arg == null){
+                    out.writeInt(-1);
+                }else{
+                    out.writeInt(arg.length);
+                    out.write(arg);
+                }
+            }
+            out.flush();
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+            fileOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取快照
+     * @param file 快照文件
+     * @param targetResolver 回调对象标识转换
+     * @return 快照
+     */
+    public static TaskSnapshot read(File file, TaskTargetResolver targetResolver) throws IOException {
+        ClassLoader classLoader = targetResolver.getClassLoader();
+        CRC32 crc = new CRC32();
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            DataInputStream in = new DataInputStream(
+                    new CheckedInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE), crc));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("不是任务快照文件: " + file);
+            }
+            long generation = in.readLong();
+            int count = in.readInt();
+
+            Method[] methods = new Method[in.readInt()];
+            for(int i = 0; i < methods.length; ++i){
+                methods[i] = TaskCodec.readMethod(in, classLoader);
+            }
+            Object[] targets = new Object[in.readInt()];
+            for(int i = 0; i < targets.length; ++i){
+                targets[i] = targetResolver.resolve(in.readUTF());
+            }
+
+            long[] deadlines = new long[count];
+            for(int i = 0; i < count; ++i){
+                deadlines[i] = in.readLong();
+            }
+            int[] methodColumn = new int[count];
+            for(int i = 0; i < count; ++i){
+                methodColumn[i] = in.readInt();
+            }
+            int[] targetColumn = new int[count];
+            for(int i = 0; i < count; ++i){
+                targetColumn[i] = in.readInt();
+            }
+
+            List<TaskDefinition> tasks = new ArrayList<>(count);
+            byte[] arg = null;
+            for(int i = 0; i < count; ++i){
+                int length = in.readInt();
+                if(length >= 0){
+                    if(arg == null || arg.length != length){
+                        arg = new byte[length];
+                    }
+                    in.readFully(arg);
+                }
+                tasks.add(new TaskDefinition(new Date(deadlines[i]), methods[methodColumn[i]],
+                        targets[targetColumn[i]], length >= 0 ? TaskCodec.deserializeArgs(arg, classLoader) : null));
+            }
+
+            long expected = crc.getValue();
+            if(in.readLong() != expected){
+                throw new IOException("任务快照校验失败: " + file);
+            }
+            return new TaskSnapshot(generation, tasks);
+        } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            throw new IOException("无法解析任务快照中的回调方法: " + file, ex);
+        }
+    }
+}
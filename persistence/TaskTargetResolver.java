@@ -0,0 +1,28 @@
+package com.sumavision.launcher.task.persistence;
+
+/**
+ * <p>功能描述：回调对象与可持久化标识的相互转换，日志中只保存标识，重启后按标识找回回调对象<p/>
+ * @author chen qi
+ */
+public interface TaskTargetResolver {
+
+    /**
+     * 获取回调对象的标识
+     * @param target 回调对象
+     * @return 标识
+     */
+    String identify(Object target);
+
+    /**
+     * 按标识找回回调对象
+     * @param identity 标识
+     * @return 回调对象
+     */
+    Object resolve(String identity);
+
+    /**
+     * 加载回调方法所在类与参数类型使用的类加载器
+     * @return ClassLoader
+     */
+    ClassLoader getClassLoader();
+}
@@ -0,0 +1,16 @@
+package com.sumavision.launcher.task.support;
+
+/**
+ * <p>功能描述：容器达到容量上限时对新任务的处理方式，对应线程池的RejectedExecutionHandler<p/>
+ * @author chen qi
+ */
+public enum AdmissionPolicy {
+    /**抛出RejectedExecutionException*/
+    REJECT,
+    /**等待其他任务出堆，超时后抛出RejectedExecutionException*/
+    BLOCK,
+    /**删除执行时间最晚的任务，新任务本身最晚时不插入*/
+    DROP_FARTHEST,
+    /**不插入，由提交任务的线程立即执行回调*/
+    CALLER_RUNS
+}
@@ -0,0 +1,175 @@
+package com.sumavision.launcher.task.support;
+
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>功能描述：按回调的等待时间与积压数量在上下限之间调整线程池大小<p/>
+ * <ul>
+ *     <li>每个采样周期遍历线程池队列：已到期的定时任务按超过到期的时间，回调按入队后的时间计算等待，取最大值</li>
+ *     <li>等待达到扩容阈值或每个线程积压超过backlogPerThread个回调时扩容一半，至少一个线程</li>
+ *     <li>等待不超过缩容阈值且没有积压，连续shrinkSamples次采样后减少一个线程</li>
+ *     <li>刚扩容后等待已在下降时不再扩容，新线程先消化积压，避免超出需要</li>
+ *     <li>两个阈值之间保持不变，扩容后重新计数，避免在阈值附近反复调整</li>
+ * </ul>
+ * @author chen qi
+ */
+final class ElasticPoolSizer implements Runnable {
+    private final ThreadPoolExecutor executor;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final long growLagThreshold;
+    private final long shrinkLagThreshold;
+    private final int backlogPerThread;
+    private final int shrinkSamples;
+    private final long sampleInterval;
+    /**连续空闲的采样次数*/
+    private int calmSamples;
+    /**上一次采样是否扩容*/
+    private boolean grew;
+    /**上一次采样的等待(ms)*/
+    private long lastLag;
+    private final LongAdder resizes = new LongAdder();
+    private ScheduledExecutorService sampler;
+
+    ElasticPoolSizer(ThreadPoolExecutor executor, int minPoolSize, int maxPoolSize, long growLagThreshold,
+                     long shrinkLagThreshold, int backlogPerThread, int shrinkSamples, long sampleInterval) {
+        if(minPoolSize < 1 || maxPoolSize < minPoolSize || shrinkLagThreshold > growLagThreshold){
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.growLagThreshold = growLagThreshold;
+        this.shrinkLagThreshold = shrinkLagThreshold;
+        this.backlogPerThread = backlogPerThread;
+        this.shrinkSamples = shrinkSamples;
+        this.sampleInterval = sampleInterval;
+    }
+
+    synchronized void start() {
+        if(sampler != null){
+            return;
+        }
+        //采样不能放在被调整的线程池中，线程池繁忙时采样本身也会被推迟
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskPoolSizer-");
+        threadFactory.setDaemon(true);
+        sampler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        sampler.scheduleWithFixedDelay(this, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if(sampler != null){
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+
+    int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    long getResizeCount() {
+        return resizes.sum();
+    }
+
+    @Override
+    public void run() {
+        if(executor.isShutdown()){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long lag = 0L;
+        int backlog = 0;
+        for(Runnable runnable : executor.getQueue()){
+            long waiting = 0L;
+            if(runnable instanceof Delayed){
+                waiting = -((Delayed) runnable).getDelay(TimeUnit.MILLISECONDS);
+                //未到期的定时任务不算积压
+                if(waiting < 0L){
+                    continue;
+                }
+            }else if(runnable instanceof ScheduledMethodRunnable){
+                ScheduledMethodRunnable callback = (ScheduledMethodRunnable) runnable;
+                long queuedAt = callback.queuedAt;
+                if(queuedAt != 0L){
+                    waiting = now - queuedAt;
+                }else{
+                    //调用方提供的线程池不记录入队时间，按超过执行时间的时间计算
+                    Long time = callback.getTime();
+                    if(time != null){
+                        waiting = now - time;
+                    }
+                }
+            }
+            ++backlog;
+            if(waiting > lag){
+                lag = waiting;
+            }
+        }
+        long previousLag = lastLag;
+        lastLag = lag;
+        adjust(lag, previousLag, backlog);
+    }
+
+    private void adjust(long lag, long previousLag, int backlog) {
+        int size = executor.getCorePoolSize();
+        boolean grewLast = grew;
+        grew = false;
+        if(lag >= growLagThreshold || backlog > (long) size * backlogPerThread){
+            calmSamples = 0;
+            if(size < maxPoolSize && !(grewLast && lag < previousLag)){
+                resize(Math.min(maxPoolSize, size + Math.max(1, size / 2)));
+                grew = true;
+            }
+        }else if(lag <= shrinkLagThreshold && backlog == 0){
+            if(++calmSamples >= shrinkSamples && size > minPoolSize){
+                calmSamples = 0;
+                resize(size - 1);
+            }
+        }else{
+            calmSamples = 0;
+        }
+    }
+
+    private void resize(int size) {
+        if(executor instanceof ScheduledThreadPoolExecutor){
+            //定时线程池的线程数只由核心线程数决定，缩小时空闲线程退出，执行中的线程在回调结束后退出
+            executor.setCorePoolSize(size);
+        }else if(size > executor.getMaximumPoolSize()){
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        }else{
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+        resizes.increment();
+    }
+
+    /**
+     * 可调整大小的回调线程池，提交回调时记录入队时间
+     */
+    static final class WorkerPool extends ThreadPoolExecutor {
+
+        WorkerPool(int poolSize, ThreadFactory threadFactory) {
+            super(poolSize, poolSize, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if(command instanceof ScheduledMethodRunnable){
+                ((ScheduledMethodRunnable) command).queuedAt = System.currentTimeMillis();
+            }
+            super.execute(command);
+        }
+    }
+}
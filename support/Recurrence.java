@@ -0,0 +1,114 @@
+package com.sumavision.launcher.task.support;
+
+import org.springframework.scheduling.support.CronExpression;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>功能描述：周期任务的重复规则，保存在容器节点上，到期后由容器原地计算下一次执行时间<p/>
+ * <ul>
+ *     <li>固定频率：按上一次执行时间加周期，错过的周期不补执行，对齐到当前时间之后的第一个周期</li>
+ *     <li>固定延迟：回调执行结束后再等待一个周期，执行期间任务留在容器中，不会再次到期</li>
+ *     <li>cron：按表达式计算当前时间之后的下一次执行时间，没有下一次时任务结束</li>
+ * </ul>
+ * @author chen qi
+ */
+public final class Recurrence {
+    private static final int FIXED_RATE = 1;
+    private static final int FIXED_DELAY = 2;
+    private static final int CRON = 3;
+
+    private final int type;
+    /**周期(ms)*/
+    private final long period;
+    private final CronExpression cron;
+    private final ZoneId zone;
+
+    private Recurrence(int type, long period, CronExpression cron, ZoneId zone) {
+        this.type = type;
+        this.period = period;
+        this.cron = cron;
+        this.zone = zone;
+    }
+
+    /**
+     * 固定频率
+     * @param period 周期
+     * @param unit 单位
+     */
+    public static Recurrence fixedRate(long period, TimeUnit unit) {
+        return new Recurrence(FIXED_RATE, toMillis(period, unit), null, null);
+    }
+
+    /**
+     * 固定延迟
+     * @param delay 回调执行结束到下一次执行的间隔
+     * @param unit 单位
+     */
+    public static Recurrence fixedDelay(long delay, TimeUnit unit) {
+        return new Recurrence(FIXED_DELAY, toMillis(delay, unit), null, null);
+    }
+
+    /**
+     * cron表达式，使用系统默认时区
+     * @param expression 表达式，格式同Spring的@Scheduled(cron)
+     */
+    public static Recurrence cron(String expression) {
+        return cron(expression, ZoneId.systemDefault());
+    }
+
+    /**
+     * cron表达式
+     * @param expression 表达式，格式同Spring的@Scheduled(cron)
+     * @param zone 时区
+     */
+    public static Recurrence cron(String expression, ZoneId zone) {
+        if(expression == null || zone == null){ throw new NullPointerException();}
+        return new Recurrence(CRON, 0L, CronExpression.parse(expression), zone);
+    }
+
+    private static long toMillis(long period, TimeUnit unit) {
+        long millis = unit.toMillis(period);
+        if(millis <= 0){
+            throw new IllegalArgumentException("周期必须大于0ms");
+        }
+        return millis;
+    }
+
+    public boolean isFixedDelay() {
+        return type == FIXED_DELAY;
+    }
+
+    /**
+     * 周期(ms)，cron为0
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * 到期时计算下一次执行时间，固定延迟由回调结束时计算
+     * @param scheduled 本次执行时间(ms)
+     * @param now 当前时间(ms)
+     * @return 下一次执行时间(ms)，没有下一次返回-1
+     */
+    long nextDeadline(long scheduled, long now) {
+        switch (type) {
+            case FIXED_RATE:
+                long next = scheduled + period;
+                if(next <= now){
+                    next += ((now - next) / period + 1) * period;
+                }
+                return next;
+            case CRON:
+                ZonedDateTime base = ZonedDateTime.ofInstant(Instant.ofEpochMilli(Math.max(scheduled, now)), zone);
+                ZonedDateTime following = cron.next(base);
+                return following != null ? following.toInstant().toEpochMilli() : -1L;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+}
@@ -20,6 +20,31 @@ public class ScheduledExecutorFactory extends AbstractCustomizableExecutor imple
 
     private boolean exposeUnConfigurableExecutor = false;
 
+    private boolean virtualThreads = false;
+
+    private int workerPoolSize = 0;
+
+    /**执行回调的线程池，为空时回调直接在定时线程池中执行*/
+    private ExecutorService workerExecutor;
+
+    /**回调线程池是否由本工厂创建并负责关闭*/
+    private boolean workerExecutorManaged = false;
+
+    /**弹性线程数上限，大于初始线程数时按回调等待调整线程池大小*/
+    private int maxPoolSize = 0;
+
+    private long growLagThreshold = 50L;
+
+    private long shrinkLagThreshold = 5L;
+
+    private int backlogPerThread = 16;
+
+    private int shrinkSamples = 5;
+
+    private long resizeInterval = 1000L;
+
+    private ElasticPoolSizer poolSizer;
+
     public void setPoolSize(int poolSize) {
         if(poolSize > 0){
             this.poolSize = poolSize;
@@ -30,12 +55,123 @@ public class ScheduledExecutorFactory extends AbstractCustomizableExecutor imple
         this.scheduledExecutorTasks = scheduledExecutorTasks;
     }
 
+    /**
+     * 设置回调是否在虚拟线程中执行，默认是"false"
+     * <p>为"true"时定时线程池只负责到期唤醒，每个到期回调交给一个新的虚拟线程执行，
+     * 适合大量阻塞I/O的回调，需要JDK 21及以上版本
+     * <p>固定频率任务按交给虚拟线程的时刻计算间隔；固定延迟任务在虚拟线程中执行结束后才注册下一次唤醒，同一任务不会重叠执行
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * 设置回调线程池大小，默认为0，即回调在定时线程池中执行
+     * <p>大于0时创建一个ForkJoinPool执行回调，定时线程池固定为一个线程，只负责监视到期时间，
+     * 回调执行时间再长也不会推迟其他任务的唤醒；固定延迟任务在回调执行结束后才注册下一次唤醒
+     */
+    public void setWorkerPoolSize(int workerPoolSize) {
+        if(workerPoolSize >= 0){
+            this.workerPoolSize = workerPoolSize;
+        }
+    }
+
+    /**
+     * 设置执行回调的线程池，效果同setWorkerPoolSize，线程池由调用方负责关闭
+     */
+    public void setWorkerExecutor(ExecutorService workerExecutor) {
+        this.workerExecutor = workerExecutor;
+        this.workerExecutorManaged = false;
+    }
+
+    /**
+     * 设置弹性线程数上限，默认为0即线程数固定
+     * <p>大于执行回调的线程池的初始大小(poolSize或workerPoolSize)时，按回调等待时间与积压数量在初始大小与上限之间调整，
+     * 配置workerPoolSize时回调线程池改为ThreadPoolExecutor；虚拟线程与调用方提供的非ThreadPoolExecutor线程池不调整
+     * @see ElasticPoolSizer
+     */
+    public void setMaxPoolSize(int maxPoolSize) {
+        if(maxPoolSize >= 0){
+            this.maxPoolSize = maxPoolSize;
+        }
+    }
+
+    /**
+     * 设置扩容的等待阈值(ms)，默认为50
+     */
+    public void setGrowLagThreshold(long growLagThreshold) {
+        this.growLagThreshold = growLagThreshold;
+    }
+
+    /**
+     * 设置缩容的等待阈值(ms)，默认为5，不能大于扩容阈值
+     */
+    public void setShrinkLagThreshold(long shrinkLagThreshold) {
+        this.shrinkLagThreshold = shrinkLagThreshold;
+    }
+
+    /**
+     * 设置每个线程允许积压的回调数，超过时扩容，默认为16
+     */
+    public void setBacklogPerThread(int backlogPerThread) {
+        if(backlogPerThread > 0){
+            this.backlogPerThread = backlogPerThread;
+        }
+    }
+
+    /**
+     * 设置缩容前需要连续空闲的采样次数，默认为5
+     */
+    public void setShrinkSamples(int shrinkSamples) {
+        if(shrinkSamples > 0){
+            this.shrinkSamples = shrinkSamples;
+        }
+    }
+
+    /**
+     * 设置采样间隔(ms)，默认为1000
+     */
+    public void setResizeInterval(long resizeInterval) {
+        if(resizeInterval > 0){
+            this.resizeInterval = resizeInterval;
+        }
+    }
+
+    /**
+     * 执行回调的线程池当前的线程数，未启用弹性调整时返回-1
+     */
+    public int getCurrentPoolSize() {
+        ElasticPoolSizer sizer = this.poolSizer;
+        return sizer != null ? sizer.getPoolSize() : -1;
+    }
+
+    /**
+     * 弹性调整的次数
+     */
+    public long getResizeCount() {
+        ElasticPoolSizer sizer = this.poolSizer;
+        return sizer != null ? sizer.getResizeCount() : 0L;
+    }
+
     @Override
     protected ExecutorService initializeExecutor(
             ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
 
-        ScheduledExecutorService executor =
-                createExecutor(this.poolSize, threadFactory, rejectedExecutionHandler);
+        if (this.workerExecutor == null) {
+            if (this.virtualThreads) {
+                this.workerExecutor = newVirtualThreadPerTaskExecutor();
+                this.workerExecutorManaged = true;
+            }
+            else if (this.workerPoolSize > 0) {
+                this.workerExecutor = this.maxPoolSize > this.workerPoolSize ?
+                        createElasticWorkerExecutor(this.workerPoolSize, threadFactory) : createWorkerExecutor(this.workerPoolSize, threadFactory);
+                this.workerExecutorManaged = true;
+            }
+        }
+
+        //回调交给独立线程池时，定时线程池只需要一个线程监视到期时间
+        ScheduledExecutorService executor = createExecutor(
+                this.workerExecutor != null ? 1 : this.poolSize, threadFactory, rejectedExecutionHandler);
 
         if (!ObjectUtils.isEmpty(this.scheduledExecutorTasks)) {
             registerTasks(this.scheduledExecutorTasks, executor);
@@ -45,6 +181,16 @@ public class ScheduledExecutorFactory extends AbstractCustomizableExecutor imple
         this.exposedExecutor = (this.exposeUnConfigurableExecutor ?
                 Executors.unconfigurableScheduledExecutorService(executor) : executor);
 
+        ExecutorService callbackExecutor = this.workerExecutor != null ? this.workerExecutor : executor;
+        if (callbackExecutor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) callbackExecutor;
+            if (this.maxPoolSize > pool.getCorePoolSize()) {
+                this.poolSizer = new ElasticPoolSizer(pool, pool.getCorePoolSize(), this.maxPoolSize, this.growLagThreshold,
+                        this.shrinkLagThreshold, this.backlogPerThread, this.shrinkSamples, this.resizeInterval);
+                this.poolSizer.start();
+            }
+        }
+
         return executor;
     }
 
@@ -54,34 +200,223 @@ public class ScheduledExecutorFactory extends AbstractCustomizableExecutor imple
         return new ScheduledThreadPoolExecutor(poolSize, threadFactory, rejectedExecutionHandler);
     }
 
+    /**
+     * 创建执行回调的工作窃取线程池，按提交顺序执行，线程名称、优先级与守护标记同本工厂
+     * <p>ForkJoinPool只能使用自己的工作线程，配置了其他线程工厂或线程组时改用固定大小的线程池，由线程工厂创建线程
+     */
+    private ExecutorService createWorkerExecutor(int parallelism, ThreadFactory threadFactory) {
+        if (threadFactory != this || getThreadGroup() != null) {
+            return new ElasticPoolSizer.WorkerPool(parallelism, threadFactory);
+        }
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(nextThreadName());
+            thread.setPriority(getThreadPriority());
+            thread.setDaemon(isDaemon());
+            return thread;
+        };
+        return new ForkJoinPool(parallelism, factory, null, true);
+    }
+
+    /**
+     * 创建可调整大小的回调线程池，按提交顺序执行
+     */
+    private ExecutorService createElasticWorkerExecutor(int poolSize, ThreadFactory threadFactory) {
+        return new ElasticPoolSizer.WorkerPool(poolSize, threadFactory);
+    }
+
     public ScheduledFuture registerTask(ScheduledExecutorTask task, ScheduledExecutorService executor){
+        if (this.workerExecutor != null && !task.isOneTimeTask() && !task.isFixedRate()) {
+            //固定延迟要从回调执行结束开始计算，不能交给scheduleWithFixedDelay按转交时刻计算
+            return new FixedDelayHandOff(task.getRunnable(), this.workerExecutor, executor, task.getPeriod(), task.getTimeUnit())
+                    .start(task.getDelay());
+        }
+        Runnable runnable = handOff(task);
         if (task.isOneTimeTask()) {
-            return executor.schedule(task.getRunnable(), task.getDelay(), task.getTimeUnit());
+            return executor.schedule(runnable, task.getDelay(), task.getTimeUnit());
         }
         else {
             if (task.isFixedRate()) {
-                return executor.scheduleAtFixedRate(task.getRunnable(), task.getDelay(), task.getPeriod(), task.getTimeUnit());
+                return executor.scheduleAtFixedRate(runnable, task.getDelay(), task.getPeriod(), task.getTimeUnit());
             }
             else {
-                return executor.scheduleWithFixedDelay(task.getRunnable(), task.getDelay(), task.getPeriod(), task.getTimeUnit());
+                return executor.scheduleWithFixedDelay(runnable, task.getDelay(), task.getPeriod(), task.getTimeUnit());
             }
         }
     }
 
     private void registerTasks(ScheduledExecutorTask[] tasks, ScheduledExecutorService executor) {
         for (ScheduledExecutorTask task : tasks) {
-            if (task.isOneTimeTask()) {
-                executor.schedule(task.getRunnable(), task.getDelay(), task.getTimeUnit());
+            registerTask(task, executor);
+        }
+    }
+
+    /**
+     * 立即执行已到期的回调
+     * @param runnable 回调
+     */
+    public void execute(Runnable runnable) {
+        if (this.workerExecutor != null) {
+            this.workerExecutor.execute(runnable);
+        }
+        else {
+            this.exposedExecutor.execute(runnable);
+        }
+    }
+
+    /**
+     * 配置了回调线程池时，定时线程池到期后只负责把回调转交出去
+     */
+    private Runnable handOff(ScheduledExecutorTask task) {
+        Runnable runnable = task.getRunnable();
+        ExecutorService worker = this.workerExecutor;
+        if (worker == null) {
+            return runnable;
+        }
+        //转交任务缓存在执行任务上，同一个执行任务重复注册时不再创建
+        HandOff handOff = task.handOff;
+        if (handOff == null || handOff.runnable != runnable || handOff.worker != worker) {
+            handOff = task.handOff = new HandOff(runnable, worker);
+        }
+        return handOff;
+    }
+
+    static final class HandOff implements Runnable {
+        private final Runnable runnable;
+        private final ExecutorService worker;
+
+        HandOff(Runnable runnable, ExecutorService worker) {
+            this.runnable = runnable;
+            this.worker = worker;
+        }
+
+        @Override
+        public void run() {
+            worker.execute(runnable);
+        }
+    }
+
+    /**
+     * 转交给回调线程池的固定延迟任务，每次回调在工作线程中执行结束后再注册下一次唤醒，
+     * 同一任务不会重叠执行；回调抛出异常后不再执行，与scheduleWithFixedDelay一致
+     */
+    static final class FixedDelayHandOff implements ScheduledFuture<Object>, Runnable {
+        private final Runnable runnable;
+        private final ExecutorService worker;
+        private final ScheduledExecutorService scheduler;
+        private final long period;
+        private final TimeUnit timeUnit;
+        private final Runnable wakeup;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile ScheduledFuture<?> current;
+        private volatile Thread runner;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+
+        FixedDelayHandOff(Runnable runnable, ExecutorService worker, ScheduledExecutorService scheduler,
+                          long period, TimeUnit timeUnit) {
+            this.runnable = runnable;
+            this.worker = worker;
+            this.scheduler = scheduler;
+            this.period = period;
+            this.timeUnit = timeUnit;
+            this.wakeup = () -> worker.execute(this);
+        }
+
+        FixedDelayHandOff start(long delay) {
+            arm(delay);
+            return this;
+        }
+
+        private void arm(long delay) {
+            this.current = scheduler.schedule(wakeup, delay, timeUnit);
+            //注册与取消并发时，取消可能只看到上一次的唤醒
+            if (cancelled) {
+                this.current.cancel(false);
             }
-            else {
-                if (task.isFixedRate()) {
-                    executor.scheduleAtFixedRate(task.getRunnable(), task.getDelay(), task.getPeriod(), task.getTimeUnit());
-                }
-                else {
-                    executor.scheduleWithFixedDelay(task.getRunnable(), task.getDelay(), task.getPeriod(), task.getTimeUnit());
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            runner = Thread.currentThread();
+            try {
+                runnable.run();
+            } catch (Throwable ex) {
+                failure = ex;
+                done.countDown();
+                throw ex;
+            } finally {
+                runner = null;
+            }
+            if (!cancelled) {
+                try {
+                    arm(period);
+                } catch (RejectedExecutionException ex) {
+                    //定时线程池已关闭
+                    failure = ex;
+                    done.countDown();
                 }
             }
         }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (cancelled || failure != null) {
+                return false;
+            }
+            cancelled = true;
+            current.cancel(false);
+            Thread thread = runner;
+            if (mayInterruptIfRunning && thread != null) {
+                thread.interrupt();
+            }
+            done.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || failure != null;
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return report();
+        }
+
+        private Object report() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            throw new ExecutionException(failure);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return current.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
     }
 
     /**
@@ -91,6 +426,17 @@ public class ScheduledExecutorFactory extends AbstractCustomizableExecutor imple
         this.exposeUnConfigurableExecutor = exposeUnConfigurableExecutor;
     }
 
+    @Override
+    public void destroy() {
+        if (this.poolSizer != null) {
+            this.poolSizer.stop();
+        }
+        super.destroy();
+        if (this.workerExecutor != null && this.workerExecutorManaged) {
+            shutdown(this.workerExecutor);
+        }
+    }
+
     @Override
     public ScheduledExecutorService getObject() {
         return this.exposedExecutor;
@@ -16,6 +16,12 @@ public class ScheduledExecutorTask {
 
     private boolean fixedRate = false;
 
+    /**执行回调的通道，null为默认通道*/
+    private String lane;
+
+    /**ScheduledExecutorFactory缓存的转交任务*/
+    ScheduledExecutorFactory.HandOff handOff;
+
     public ScheduledExecutorTask() {
     }
 
@@ -97,4 +103,15 @@ public class ScheduledExecutorTask {
     public boolean isFixedRate() {
         return this.fixedRate;
     }
+
+    /**
+     * 设置执行回调的通道，TaskScheduling按通道名称选择线程池，默认为null即默认通道
+     */
+    public void setLane(String lane) {
+        this.lane = lane;
+    }
+
+    public String getLane() {
+        return this.lane;
+    }
 }
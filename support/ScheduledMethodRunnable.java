@@ -1,18 +1,69 @@
 package com.sumavision.launcher.task.support;
 
+import org.springframework.util.ErrorHandler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 
 /**
+ * <p>回调方法第一次执行时编译为统一签名(Object, Object[])Object的MethodHandle并按Method缓存，
+ * 之后直接调用，不再经过反射的访问检查与InvocationTargetException包装。句柄保存在实例字段中，JIT不能按常量内联，
+ * JDK 18及以上Method.invoke本身也通过MethodHandle实现，两者的差距按JDK不同，见benchmarks模块的InvokerBenchmark。
+ * 参数与回调方法不匹配时同Method.invoke抛出IllegalArgumentException，无法直接访问的方法退回反射调用<p/>
+ * <p>回调方法返回CompletionStage(包括CompletableFuture)时为异步回调：执行线程调用后立即返回，
+ * 在CompletionStage完成时记录执行时间并通知{@link #completed()}<p/>
+ * <p>设置了ErrorHandler时同步回调抛出的异常与异步回调的失败都交给它，同步回调不再抛出；
+ * 未设置时同步回调的异常从run抛出，由执行它的线程池处理(定时线程池保存在Future中，回调线程池交给工作线程的UncaughtExceptionHandler)，
+ * 异步回调的失败交给完成CompletionStage的线程的UncaughtExceptionHandler<p/>
+ * <p>设置了超时的回调开始执行时登记到共用的TimeoutWheel，超时后按TimeoutPolicy中断或放弃，
+ * 超时次数记录在SchedulerMetrics中，TimeoutException交给ErrorHandler，未设置时交给超时线程的UncaughtExceptionHandler<p/>
  * @author cq
  */
 public class ScheduledMethodRunnable implements Runnable{
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+    private static final ConcurrentMap<Method, MethodHandle> INVOKERS = new ConcurrentHashMap<>();
+    /**无法直接访问的方法退回反射调用*/
+    private static final MethodHandle REFLECTIVE_INVOKER;
+
+    static {
+        try {
+            REFLECTIVE_INVOKER = MethodHandles.lookup().findStatic(ScheduledMethodRunnable.class, "invokeReflectively",
+                    MethodType.methodType(Object.class, Method.class, Object.class, Object[].class));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
     private Object[] args;
     private Method method;
     private Object clazz;
-    private Long time;
+    /**执行时间(ms)，NO_TIME表示未设置*/
+    private long time = NO_TIME;
+    private MethodHandle invoker;
+    /**调度指标，为空时不记录*/
+    private SchedulerMetrics metrics;
+    /**执行超时(ms)，0表示使用TimeoutWheel的默认超时*/
+    private long timeout;
+    /**超时检测，为空时不限制*/
+    private TimeoutWheel timeouts;
+    /**回调异常处理，为空时按执行线程处理*/
+    private ErrorHandler errorHandler;
+    /**TimeoutWheel缓存的执行记录*/
+    TimeoutWheel.Execution execution;
+    /**进入可调整大小的回调线程池队列的时间(ms)，0表示未记录*/
+    volatile long queuedAt;
 
     public ScheduledMethodRunnable(Method method, Object clazz, Object[] args) {
         this.method = method;
@@ -21,19 +72,206 @@ public class ScheduledMethodRunnable implements Runnable{
     }
 
     public ScheduledMethodRunnable(Method method, Object clazz, Object[] args, Long time) {
-        this.time = time;
+        this.time = time != null ? time : NO_TIME;
         this.method = method;
         this.clazz = clazz;
         this.args = args;
     }
     @Override
     public void run() {
+        MethodHandle handle = this.invoker;
+        if(handle == null){
+            handle = this.invoker = invoker(method);
+        }
+        SchedulerMetrics metrics = this.metrics;
+        long start = 0L;
+        if(metrics != null){
+            if(time != NO_TIME){
+                metrics.recordFireLag(System.currentTimeMillis() - time);
+            }
+            start = System.nanoTime();
+        }
+
+        TimeoutWheel timeouts = this.timeouts;
+        TimeoutWheel.Execution execution = null;
+        TimeoutPolicy policy = null;
+        if(timeouts != null){
+            long limit = timeout > 0L ? timeout : timeouts.getDefaultTimeout();
+            if(limit > 0L){
+                execution = timeouts.arm(this, limit);
+                policy = execution.policy;
+            }
+        }
+
+        boolean async = false;
         try {
-            method.invoke(clazz,args);
-        } catch (InvocationTargetException ex) {
-            rethrowRuntimeException(ex.getTargetException());
+            Object result = invoke(handle);
+            if(result instanceof CompletionStage){
+                track((CompletionStage<?>) result, metrics, start, timeouts, execution, policy);
+                async = true;
+            }
+        } catch (Throwable ex) {
+            ErrorHandler errorHandler = this.errorHandler;
+            if(errorHandler == null){
+                throw ex;
+            }
+            errorHandler.handleError(ex);
+        } finally {
+            //放弃的回调已在超时时通知完成
+            if(!async && (execution == null || timeouts.finish(execution, true) || policy == TimeoutPolicy.INTERRUPT)){
+                if(metrics != null){
+                    metrics.recordCallbackDuration(System.nanoTime() - start);
+                }
+                completed();
+            }
+        }
+    }
+
+    /**
+     * 回调执行结束，异步回调在CompletionStage完成时调用，无论成功或失败
+     */
+    protected void completed() {
+    }
+
+    /**
+     * 异步回调完成时记录执行时间并通知完成，不占用执行线程
+     * @param stage 回调返回值
+     * @param metrics 调度指标，可以为空
+     * @param start 开始执行时间(ns)
+     * @param timeouts 超时检测，execution为空时不使用
+     * @param execution 执行记录，未设置超时为空
+     * @param policy 超时处理方式
+     */
+    private void track(CompletionStage<?> stage, SchedulerMetrics metrics, long start,
+                       TimeoutWheel timeouts, TimeoutWheel.Execution execution, TimeoutPolicy policy) {
+        if(metrics != null){
+            metrics.addAsyncInFlight();
+        }
+        if(execution != null){
+            timeouts.attach(execution, stage);
+        }
+        stage.whenComplete((value, ex) -> {
+            //超时后的结果不再报告，已报告TimeoutException
+            boolean inTime = execution == null || timeouts.finish(execution, false);
+            try {
+                if(metrics != null){
+                    metrics.recordAsyncCompletion(System.nanoTime() - start, ex != null);
+                }
+                if(inTime || policy == TimeoutPolicy.INTERRUPT){
+                    completed();
+                }
+            } finally {
+                if(ex != null && inTime){
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    handleError(cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * 超时处理，由TimeoutWheel的线程调用，同步执行中的线程已被中断
+     * @param stage 异步回调返回值，同步部分执行中超时为空
+     * @param policy 超时处理方式
+     */
+    void timedOut(CompletionStage<?> stage, TimeoutPolicy policy) {
+        SchedulerMetrics metrics = this.metrics;
+        if(metrics != null){
+            metrics.addTimedOutCallback(policy);
+        }
+        if(policy == TimeoutPolicy.ABANDON){
+            completed();
+        }else if(stage != null){
+            TimeoutWheel.cancel(stage);
+        }
+        handleError(new TimeoutException(method.getDeclaringClass().getName() + "." + method.getName() + " 执行超时"));
+    }
+
+    /**
+     * 交给ErrorHandler，未设置时交给当前线程的UncaughtExceptionHandler
+     */
+    private void handleError(Throwable ex) {
+        ErrorHandler errorHandler = this.errorHandler;
+        if(errorHandler != null){
+            errorHandler.handleError(ex);
+            return;
+        }
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+    }
+
+    private Object invoke(MethodHandle handle) {
+        try {
+            return handle.invokeExact(clazz, args);
+        } catch (ClassCastException | NullPointerException ex) {
+            //参数转换在进入回调方法之前，参数不匹配时按Method.invoke抛出IllegalArgumentException，否则是回调方法本身抛出的
+            if(!applicable(method, clazz, args)){
+                throw new IllegalArgumentException("argument type mismatch: " + method, ex);
+            }
+            throw ex;
+        } catch (Throwable ex) {
+            rethrowRuntimeException(ex);
+            return null;
+        }
+    }
+
+    /**
+     * 调用对象与参数能否按编译后的MethodHandle转换，调用对象为空由Method.invoke同样抛出NullPointerException
+     */
+    private static boolean applicable(Method method, Object target, Object[] args){
+        if(!Modifier.isStatic(method.getModifiers()) && target != null && !method.getDeclaringClass().isInstance(target)){
+            return false;
+        }
+        Class<?>[] types = method.getParameterTypes();
+        if((args == null ? 0 : args.length) != types.length){
+            return false;
+        }
+        for(int i = 0; i < types.length; ++i){
+            try {
+                //与asType相同的转换：引用类型强制转换，基本类型拆箱后拓宽
+                MethodHandles.identity(types[i]).asType(MethodType.methodType(types[i], Object.class)).invoke(args[i]);
+            } catch (Throwable ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 公共类的公共方法按Method共用编译结果；其他方法能否访问取决于各自Method对象的setAccessible，
+     * 而Method.equals不区分，只由本实例缓存
+     */
+    private static MethodHandle invoker(Method method){
+        if(Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers())){
+            return INVOKERS.computeIfAbsent(method, ScheduledMethodRunnable::compile);
+        }
+        return compile(method);
+    }
+
+    /**
+     * 将回调方法编译为(Object, Object[])Object，静态方法忽略调用对象
+     * @param method 回调方法
+     * @return MethodHandle
+     */
+    private static MethodHandle compile(Method method){
+        try {
+            //可变参数方法按固定参数个数调用，与Method.invoke一致，参数数组中直接传入数组
+            MethodHandle handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+            if(Modifier.isStatic(method.getModifiers())){
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asSpreader(Object[].class, method.getParameterCount()).asType(INVOKER_TYPE);
+        } catch (IllegalAccessException ex) {
+            return REFLECTIVE_INVOKER.bindTo(method);
         }
-        catch (IllegalAccessException ex) {
+    }
+
+    private static Object invokeReflectively(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getTargetException();
+        } catch (IllegalAccessException ex) {
             throw new UndeclaredThrowableException(ex);
         }
     }
@@ -52,6 +290,7 @@ public class ScheduledMethodRunnable implements Runnable{
 
     public void setMethod(Method method) {
         this.method = method;
+        this.invoker = null;
     }
 
     public Object getClazz() {
@@ -63,13 +302,55 @@ public class ScheduledMethodRunnable implements Runnable{
     }
 
     public Long getTime() {
-        return time;
+        return time != NO_TIME ? time : null;
     }
 
     public void setTime(Long time) {
+        this.time = time != null ? time : NO_TIME;
+    }
+
+    /**
+     * 设置执行时间，不装箱
+     * @param time 执行时间(ms)
+     */
+    public void setTime(long time) {
         this.time = time;
     }
 
+    public SchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(SchedulerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 设置执行超时(ms)，0表示使用TaskScheduling的默认超时
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    void setTimeouts(TimeoutWheel timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * 设置回调异常处理，同步与异步回调的异常以及执行超时都交给它
+     */
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
     private void rethrowRuntimeException(Throwable ex) {
         if (ex instanceof RuntimeException) {
             throw (RuntimeException) ex;
@@ -0,0 +1,302 @@
+package com.sumavision.launcher.task.support;
+
+import com.sumavision.launcher.task.util.Histogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>功能描述：调度指标，注册为bean后由TaskScheduling、TaskContainer与回调自动记录<p/>
+ * <ul>
+ *     <li>fire lag：回调开始执行时间减去任务执行时间(ms)</li>
+ *     <li>callback duration：回调执行时间(ns)，异步回调到返回的CompletionStage完成为止</li>
+ *     <li>queue depth：每次唤醒时容器中的任务数</li>
+ *     <li>lock wait：获取容器锁的等待时间(ns)</li>
+ *     <li>cancelled futures：stopTask取消的唤醒与回调数</li>
+ *     <li>shed tasks：容器达到上限后按策略舍弃的任务数</li>
+ *     <li>async in flight / async failures：尚未完成的异步回调数与失败的异步回调数</li>
+ *     <li>timed out callbacks：按超时处理方式统计的超时回调数</li>
+ *     <li>rejected callbacks：到期后提交回调线程池被拒绝、没有执行的回调数</li>
+ * </ul>
+ * 记录时不分配对象，通过snapshot读取或输出Prometheus文本格式
+ * @author chen qi
+ */
+public class SchedulerMetrics {
+    private static final String PREFIX = "task_scheduler_";
+    private static final double MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Histogram fireLag = new Histogram();
+    private final Histogram callbackDuration = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+    private final Histogram lockWait = new Histogram();
+    private final LongAdder cancelledFutures = new LongAdder();
+    private final LongAdder[] shedTasks = new LongAdder[AdmissionPolicy.values().length];
+    private final LongAdder asyncInFlight = new LongAdder();
+    private final LongAdder asyncFailures = new LongAdder();
+    private final LongAdder[] timedOutCallbacks = new LongAdder[TimeoutPolicy.values().length];
+    private final LongAdder rejectedCallbacks = new LongAdder();
+
+    public SchedulerMetrics() {
+        for(int i = 0; i < shedTasks.length; ++i){
+            shedTasks[i] = new LongAdder();
+        }
+        for(int i = 0; i < timedOutCallbacks.length; ++i){
+            timedOutCallbacks[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param lag 回调开始执行时间减去任务执行时间(ms)，提前执行按0记录
+     */
+    public void recordFireLag(long lag) {
+        fireLag.record(lag);
+    }
+
+    /**
+     * @param nanos 回调执行时间(ns)
+     */
+    public void recordCallbackDuration(long nanos) {
+        callbackDuration.record(nanos);
+    }
+
+    /**
+     * @param depth 容器中的任务数
+     */
+    public void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+    }
+
+    /**
+     * @param nanos 获取容器锁的等待时间(ns)
+     */
+    public void recordLockWait(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    /**
+     * @param count 取消的数量
+     */
+    public void addCancelledFutures(int count) {
+        if(count > 0){
+            cancelledFutures.add(count);
+        }
+    }
+
+    /**
+     * @param policy 舍弃任务的策略
+     */
+    public void addShedTask(AdmissionPolicy policy) {
+        shedTasks[policy.ordinal()].increment();
+    }
+
+    /**
+     * 异步回调开始执行
+     */
+    public void addAsyncInFlight() {
+        asyncInFlight.increment();
+    }
+
+    /**
+     * 异步回调完成
+     * @param nanos 开始执行到完成的时间(ns)
+     * @param failed 是否失败
+     */
+    public void recordAsyncCompletion(long nanos, boolean failed) {
+        asyncInFlight.decrement();
+        callbackDuration.record(nanos);
+        if(failed){
+            asyncFailures.increment();
+        }
+    }
+
+    /**
+     * @param policy 超时处理方式
+     */
+    public void addTimedOutCallback(TimeoutPolicy policy) {
+        timedOutCallbacks[policy.ordinal()].increment();
+    }
+
+    /**
+     * 到期回调提交线程池被拒绝
+     */
+    public void addRejectedCallback() {
+        rejectedCallbacks.increment();
+    }
+
+    public Snapshot snapshot() {
+        long[] shed = new long[shedTasks.length];
+        for(int i = 0; i < shed.length; ++i){
+            shed[i] = shedTasks[i].sum();
+        }
+        long[] timedOut = new long[timedOutCallbacks.length];
+        for(int i = 0; i < timedOut.length; ++i){
+            timedOut[i] = timedOutCallbacks[i].sum();
+        }
+        return new Snapshot(fireLag.snapshot(), callbackDuration.snapshot(), queueDepth.snapshot(),
+                lockWait.snapshot(), cancelledFutures.sum(), shed, asyncInFlight.sum(), asyncFailures.sum(), timedOut,
+                rejectedCallbacks.sum());
+    }
+
+    /**
+     * 输出Prometheus文本格式，时间换算为秒
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        writePrometheus(out);
+        return out.toString();
+    }
+
+    /**
+     * 输出Prometheus文本格式，时间换算为秒
+     * @param out 输出
+     */
+    public void writePrometheus(Appendable out) {
+        Snapshot snapshot = snapshot();
+        try {
+            writeHistogram(out, "fire_lag_seconds", "Delay between the scheduled time and the callback start.",
+                    snapshot.getFireLag(), MILLIS_PER_SECOND);
+            writeHistogram(out, "callback_duration_seconds", "Callback execution time.",
+                    snapshot.getCallbackDuration(), NANOS_PER_SECOND);
+            writeHistogram(out, "queue_depth", "Pending tasks observed at each wakeup.",
+                    snapshot.getQueueDepth(), 1D);
+            writeHistogram(out, "lock_wait_seconds", "Time spent waiting for the container lock.",
+                    snapshot.getLockWait(), NANOS_PER_SECOND);
+            String name = PREFIX + "cancelled_futures_total";
+            out.append("# HELP ").append(name).append(" Futures cancelled by stopTask.\n");
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(Long.toString(snapshot.getCancelledFutures())).append('\n');
+            name = PREFIX + "shed_tasks_total";
+            out.append("# HELP ").append(name).append(" Tasks shed by the container admission policy.\n");
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for(AdmissionPolicy policy : AdmissionPolicy.values()){
+                out.append(name).append("{policy=\"").append(policy.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                        .append(Long.toString(snapshot.getShedTasks(policy))).append('\n');
+            }
+            name = PREFIX + "async_in_flight";
+            out.append("# HELP ").append(name).append(" Async callbacks whose CompletionStage has not completed.\n");
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(Long.toString(snapshot.getAsyncInFlight())).append('\n');
+            name = PREFIX + "async_failures_total";
+            out.append("# HELP ").append(name).append(" Async callbacks completed exceptionally.\n");
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(Long.toString(snapshot.getAsyncFailures())).append('\n');
+            name = PREFIX + "timed_out_callbacks_total";
+            out.append("# HELP ").append(name).append(" Callbacks that exceeded their execution timeout.\n");
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for(TimeoutPolicy policy : TimeoutPolicy.values()){
+                out.append(name).append("{policy=\"").append(policy.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                        .append(Long.toString(snapshot.getTimedOutCallbacks(policy))).append('\n');
+            }
+            name = PREFIX + "rejected_callbacks_total";
+            out.append("# HELP ").append(name).append(" Due callbacks rejected by the callback executor.\n");
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(Long.toString(snapshot.getRejectedCallbacks())).append('\n');
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * 按2的幂输出累计桶，到记录的最大值为止
+     */
+    private static void writeHistogram(Appendable out, String metric, String help, Histogram.Snapshot histogram, double scale)
+            throws IOException {
+        String name = PREFIX + metric;
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long max = histogram.getMax();
+        for(int shift = 0; shift < 63; ++shift){
+            long bound = (1L << shift) - 1;
+            out.append(name).append("_bucket{le=\"").append(format(bound / scale)).append("\"} ")
+                    .append(Long.toString(histogram.getCountAtOrBelow(bound))).append('\n');
+            if(bound >= max){
+                break;
+            }
+        }
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(Long.toString(histogram.getCount())).append('\n');
+        out.append(name).append("_sum ").append(format(histogram.getSum() / scale)).append('\n');
+        out.append(name).append("_count ").append(Long.toString(histogram.getCount())).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * 指标快照
+     */
+    public static final class Snapshot {
+        private final Histogram.Snapshot fireLag;
+        private final Histogram.Snapshot callbackDuration;
+        private final Histogram.Snapshot queueDepth;
+        private final Histogram.Snapshot lockWait;
+        private final long cancelledFutures;
+        private final long[] shedTasks;
+        private final long asyncInFlight;
+        private final long asyncFailures;
+        private final long[] timedOutCallbacks;
+        private final long rejectedCallbacks;
+
+        Snapshot(Histogram.Snapshot fireLag, Histogram.Snapshot callbackDuration, Histogram.Snapshot queueDepth,
+                 Histogram.Snapshot lockWait, long cancelledFutures, long[] shedTasks, long asyncInFlight, long asyncFailures,
+                 long[] timedOutCallbacks, long rejectedCallbacks) {
+            this.fireLag = fireLag;
+            this.callbackDuration = callbackDuration;
+            this.queueDepth = queueDepth;
+            this.lockWait = lockWait;
+            this.cancelledFutures = cancelledFutures;
+            this.shedTasks = shedTasks;
+            this.asyncInFlight = asyncInFlight;
+            this.asyncFailures = asyncFailures;
+            this.timedOutCallbacks = timedOutCallbacks;
+            this.rejectedCallbacks = rejectedCallbacks;
+        }
+
+        /**单位ms*/
+        public Histogram.Snapshot getFireLag() {
+            return fireLag;
+        }
+
+        /**单位ns*/
+        public Histogram.Snapshot getCallbackDuration() {
+            return callbackDuration;
+        }
+
+        public Histogram.Snapshot getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**单位ns*/
+        public Histogram.Snapshot getLockWait() {
+            return lockWait;
+        }
+
+        public long getCancelledFutures() {
+            return cancelledFutures;
+        }
+
+        public long getShedTasks(AdmissionPolicy policy) {
+            return shedTasks[policy.ordinal()];
+        }
+
+        public long getAsyncInFlight() {
+            return asyncInFlight;
+        }
+
+        public long getAsyncFailures() {
+            return asyncFailures;
+        }
+
+        public long getTimedOutCallbacks(TimeoutPolicy policy) {
+            return timedOutCallbacks[policy.ordinal()];
+        }
+
+        public long getRejectedCallbacks() {
+            return rejectedCallbacks;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.sumavision.launcher.task.support;
+
+import com.sumavision.launcher.task.util.AbstractCustomizableExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>功能描述：按核心数分片的调度，每个分片有自己的TaskContainer与线程，线程挂起到本分片的头任务执行时间，
+ * 到期后在本线程中直接执行回调<p/>
+ * <ul>
+ *     <li>任务按回调方法与参数的哈希分配到分片，与容器判断相同任务的依据一致，相同任务总在同一分片</li>
+ *     <li>添加任务通过容器的无锁提交，只在早于分片挂起时间时唤醒分片线程</li>
+ *     <li>分片一次最多执行batchSize个到期回调，仍有积压时唤醒一个挂起的分片，
+ *     没有本分片到期任务的线程从其他分片取出最多stealBatch个到期任务执行</li>
+ * </ul>
+ * <p>回调在分片线程中执行，耗时的回调会推迟同一分片的其他任务，需开启workStealing或自行转交线程池<p/>
+ * @author chen qi
+ */
+public class ShardedTaskScheduling extends AbstractCustomizableExecutor {
+
+    private static final long serialVersionUID = 1L;
+
+    private int shardCount = Runtime.getRuntime().availableProcessors();
+
+    private boolean workStealing = true;
+
+    private int batchSize = 256;
+
+    private int stealBatch = 64;
+
+    /**调度指标，为空时不记录*/
+    private volatile SchedulerMetrics metrics;
+
+    private Shard[] shards;
+
+    private final LongAdder stolen = new LongAdder();
+
+    @Override
+    protected String getDefaultThreadNamePrefix() {
+        return "TaskShard-";
+    }
+
+    /**
+     * 设置分片数，默认为可用处理器数
+     */
+    public void setShardCount(int shardCount) {
+        if(shardCount > 0){
+            this.shardCount = shardCount;
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * 设置空闲分片是否执行其他分片的到期任务，默认是"true"
+     */
+    public void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+    }
+
+    /**
+     * 设置分片一次最多执行的本分片到期回调数，默认为256
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize > 0){
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * 设置一次最多从其他分片取出的到期任务数，默认为64
+     */
+    public void setStealBatch(int stealBatch) {
+        if(stealBatch > 0){
+            this.stealBatch = stealBatch;
+        }
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(SchedulerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 每个分片在线程池中占用一个线程直到关闭
+     */
+    @Override
+    protected ExecutorService initializeExecutor(
+            ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+        Shard[] created = new Shard[shardCount];
+        for(int i = 0; i < created.length; ++i){
+            created[i] = new Shard(i);
+        }
+        this.shards = created;
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(shardCount, shardCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory, rejectedExecutionHandler);
+        for(Shard shard : created){
+            executor.execute(shard);
+        }
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        Shard[] current = this.shards;
+        if(current != null){
+            for(Shard shard : current){
+                shard.stop();
+            }
+        }
+        super.destroy();
+    }
+
+    /**
+     * 添加任务，相同任务会替换原有任务
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     */
+    public void addTask(Date time, Method method, Object clazz, Object[] args){
+        Shard shard = shard(method, args);
+        shard.container.offer(time, method, clazz, args, false);
+        shard.wakeup(time.getTime());
+    }
+
+    /**
+     * 添加任务，已有相同任务时不替换
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     */
+    public void addIfAbsent(Date time, Method method, Object clazz, Object[] args){
+        Shard shard = shard(method, args);
+        shard.container.offer(time, method, clazz, args, true);
+        shard.wakeup(time.getTime());
+    }
+
+    /**
+     * 添加周期任务，相同任务会替换原有任务
+     * @param time 第一次执行时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param recurrence 重复规则
+     */
+    public void addRecurringTask(Date time, Method method, Object clazz, Object[] args, Recurrence recurrence){
+        Shard shard = shard(method, args);
+        shard.container.put(time, method, clazz, args, recurrence, false);
+        shard.wakeup(time.getTime());
+    }
+
+    /**
+     * 删除任务
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 是否删除
+     */
+    public boolean removeTask(Method method, Object clazz, Object[] args){
+        return shard(method, args).container.remove(null, method, clazz, args) >= 0;
+    }
+
+    /**
+     * 所有分片的任务数
+     */
+    public int size(){
+        int size = 0;
+        for(Shard shard : shards()){
+            size += shard.container.size();
+        }
+        return size;
+    }
+
+    /**
+     * 从其他分片取出执行的任务数
+     */
+    public long getStolenCount() {
+        return stolen.sum();
+    }
+
+    private Shard[] shards(){
+        Shard[] current = this.shards;
+        if(current == null){
+            throw new IllegalStateException("分片尚未初始化");
+        }
+        return current;
+    }
+
+    private Shard shard(Method method, Object[] args){
+        Shard[] current = shards();
+        int h = 31 * method.hashCode() + Arrays.hashCode(args);
+        return current[Math.floorMod(h ^ (h >>> 16), current.length)];
+    }
+
+    /**
+     * 唤醒一个挂起的分片执行积压的到期任务
+     * @param busy 有积压的分片
+     */
+    private void signalThief(Shard busy){
+        if(!workStealing){
+            return;
+        }
+        Shard[] current = this.shards;
+        for(int i = 1; i < current.length; ++i){
+            Shard shard = current[(busy.index + i) % current.length];
+            //挂起时间在执行期间也是Long.MAX_VALUE，只按挂起标志判断
+            if(shard.idle){
+                LockSupport.unpark(shard.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 单个分片：容器、挂起时间与执行线程
+     */
+    private final class Shard implements Runnable {
+        private final int index;
+        private final TaskContainer container = new TaskContainer();
+        /**分片线程挂起到的执行时间，执行期间为Long.MAX_VALUE*/
+        private final AtomicLong parkedUntil = new AtomicLong(Long.MAX_VALUE);
+        private final List<ScheduledExecutorTask> expiredTasks = new ArrayList<>();
+        private volatile Thread thread;
+        private volatile boolean running = true;
+        /**分片线程是否挂起等待*/
+        private volatile boolean idle;
+
+        Shard(int index) {
+            this.index = index;
+            //固定延迟任务执行结束后重新计算的执行时间可能早于挂起时间
+            container.setRescheduleListener(this::wakeup);
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * 仅当deadline早于挂起时间时唤醒分片线程
+         * @param deadline 执行时间(ms)
+         */
+        void wakeup(long deadline) {
+            long parked;
+            while(deadline < (parked = parkedUntil.get())){
+                if(parkedUntil.compareAndSet(parked, deadline)){
+                    LockSupport.unpark(thread);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while(running){
+                //读取头任务前先放开挂起时间，执行期间提交的任务都会留下一次唤醒
+                parkedUntil.set(Long.MAX_VALUE);
+                int fired = fire(container, batchSize);
+                if(fired >= batchSize){
+                    signalThief(this);
+                    continue;
+                }
+                if(fired > 0 || (workStealing && steal())){
+                    continue;
+                }
+
+                long next = container.nextDeadline();
+                long parked = parkedUntil.accumulateAndGet(next, Math::min);
+                if(parked == Long.MAX_VALUE){
+                    idle = true;
+                    LockSupport.park(this);
+                    idle = false;
+                }else if(parked > System.currentTimeMillis()){
+                    idle = true;
+                    LockSupport.parkUntil(this, parked);
+                    idle = false;
+                }
+            }
+        }
+
+        /**
+         * 从其他分片取出到期任务执行
+         * @return 是否取到任务
+         */
+        private boolean steal() {
+            Shard[] current = shards;
+            long now = System.currentTimeMillis();
+            for(int i = 1; i < current.length; ++i){
+                Shard victim = current[(index + i) % current.length];
+                if(victim.container.nextDeadline() <= now){
+                    int count = fire(victim.container, stealBatch);
+                    if(count > 0){
+                        stolen.add(count);
+                        if(count >= stealBatch){
+                            signalThief(this);
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 取出最多max个到期任务并在本线程中执行
+         * @return 执行的任务数
+         */
+        private int fire(TaskContainer source, int max) {
+            SchedulerMetrics metrics = ShardedTaskScheduling.this.metrics;
+            if(metrics != null && source == container){
+                metrics.recordQueueDepth(container.size());
+            }
+            source.drainExpired(System.currentTimeMillis(), expiredTasks, max);
+            int count = expiredTasks.size();
+            try {
+                for(int i = 0; i < count; ++i){
+                    Runnable runnable = expiredTasks.get(i).getRunnable();
+                    if(metrics != null && runnable instanceof ScheduledMethodRunnable){
+                        ((ScheduledMethodRunnable) runnable).setMetrics(metrics);
+                    }
+                    try {
+                        runnable.run();
+                    } catch (Throwable ex) {
+                        //回调异常与错误都不结束分片线程，否则本分片的任务不再执行
+                        Thread current = Thread.currentThread();
+                        current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+                    }
+                }
+            } finally {
+                expiredTasks.clear();
+            }
+            return count;
+        }
+    }
+}
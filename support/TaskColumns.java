@@ -0,0 +1,73 @@
+package com.sumavision.launcher.task.support;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * <p>功能描述：按列复制的容器任务，用于持久化快照<p/>
+ * <p>容器在锁内只复制几个数组，不为每个任务创建TaskDefinition与Date，写快照时在锁外按下标读取<p/>
+ * @author chen qi
+ */
+public final class TaskColumns {
+    private final long[] deadlines;
+    private final Method[] methods;
+    private final Object[] targets;
+    private final Object[][] args;
+
+    /**
+     * @param deadlines 执行时间(ms)
+     * @param methods 回调方法
+     * @param targets 回调对象
+     * @param args 参数
+     */
+    public TaskColumns(long[] deadlines, Method[] methods, Object[] targets, Object[][] args) {
+        if(deadlines.length != methods.length || deadlines.length != targets.length || deadlines.length != args.length){
+            throw new IllegalArgumentException("列长度不一致");
+        }
+        this.deadlines = deadlines;
+        this.methods = methods;
+        this.targets = targets;
+        this.args = args;
+    }
+
+    /**
+     * 按列复制任务
+     * @param tasks 任务
+     * @return TaskColumns
+     */
+    public static TaskColumns of(List<TaskDefinition> tasks) {
+        int size = tasks.size();
+        long[] deadlines = new long[size];
+        Method[] methods = new Method[size];
+        Object[] targets = new Object[size];
+        Object[][] args = new Object[size][];
+        for(int i = 0; i < size; ++i){
+            TaskDefinition task = tasks.get(i);
+            deadlines[i] = task.getTime().getTime();
+            methods[i] = task.getMethod();
+            targets[i] = task.getClazz();
+            args[i] = task.getArgs();
+        }
+        return new TaskColumns(deadlines, methods, targets, args);
+    }
+
+    public int size() {
+        return deadlines.length;
+    }
+
+    public long getDeadline(int i) {
+        return deadlines[i];
+    }
+
+    public Method getMethod(int i) {
+        return methods[i];
+    }
+
+    public Object getClazz(int i) {
+        return targets[i];
+    }
+
+    public Object[] getArgs(int i) {
+        return args[i];
+    }
+}
@@ -1,29 +1,89 @@
 package com.sumavision.launcher.task.support;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>功能描述：用于存储任务的容器<p/>
+ * <p>二叉堆按列存储：deadlines保存执行时间(ms)，ids保存任务编号，调整堆时只访问这两个基本类型数组；
+ * 任务内容按编号存放在nodes中，slots记录每个编号在堆中的位置；执行时间相同时按priorities中的优先级排序<p/>
+ * <p>offer不获取锁，任务先进入无锁队列，由下一次持锁操作合并进堆<p/>
+ * <p>可以设置容量与内存预算，达到上限后按AdmissionPolicy处理新任务并计数<p/>
  * @author chen qi
  */
 @Component
-public class TaskContainer {
+public class TaskContainer implements TaskQueue {
     /**容器最大容量*/
     private static final int DEFAULT_INITIAL_CAPACITY = 11;
     /**容器默认大小*/
     private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     private static final int START_POSITION = 1;
-    private volatile Node[] queue ;
+    /**按内存预算换算容量时每个任务的估算字节数，包括堆数组、节点与索引，不包括参数*/
+    private static final int ESTIMATED_TASK_BYTES = 128;
+    /**admit的结果*/
+    private static final int ADMITTED = 0;
+    private static final int SHED = 1;
+    private static final int CALLER_RUNS = 2;
+    /**堆：执行时间(ms)*/
+    private volatile long[] deadlines;
+    /**堆：与deadlines同位置的任务编号*/
+    private int[] ids;
+    /**按任务编号存放的任务内容*/
+    private Node[] nodes;
+    /**按任务编号记录堆中位置，编号空闲时记录下一个空闲编号*/
+    private int[] slots;
+    /**按任务编号存放的优先级，执行时间相同时数值大的先执行*/
+    private int[] priorities;
+    /**空闲编号链表头，-1表示没有空闲编号*/
+    private int freeId = -1;
+    /**从未使用过的最小编号*/
+    private int nextId;
     private volatile int size;
+    /**按回调方法与参数索引节点，相同任务通过sameNext串联，value为最近插入的节点*/
+    private final Map<Node, Node> positions;
+    /**生产者无锁写入的待合并任务*/
+    private final Queue<Pending> inbox = new ConcurrentLinkedQueue<>();
     /** 使用所有公共操作*/
     private final ReentrantLock lock;
     private AtomicInteger allocationSpinLock = new AtomicInteger(0);
+    /**调度指标，为空时不记录锁等待时间*/
+    private volatile SchedulerMetrics metrics;
+    /**固定延迟任务执行结束后重新进入堆时通知*/
+    private volatile RescheduleListener rescheduleListener;
+    /**任务不经到期取出离开堆时通知*/
+    private volatile RemovalListener removalListener;
+    /**容量，0表示不限制*/
+    private int capacity = 0;
+    /**内存预算(字节)，0表示不限制*/
+    private long memoryBudget = 0L;
+    /**由容量与内存预算得出的任务数上限，Integer.MAX_VALUE表示不限制*/
+    private volatile int maxSize = Integer.MAX_VALUE;
+    private volatile AdmissionPolicy admissionPolicy = AdmissionPolicy.REJECT;
+    /**BLOCK策略的等待时间(ms)*/
+    private volatile long blockTimeout = 0L;
+    /**有任务出堆时通知BLOCK策略等待的线程*/
+    private final Condition notFull;
+    /**按策略统计被舍弃的任务数*/
+    private final LongAdder[] shedCounts = new LongAdder[AdmissionPolicy.values().length];
+    /**设置了上限时无锁队列中等待合并的任务数*/
+    private final AtomicInteger pendingCount = new AtomicInteger();
 
     /**
      * 初始化一个指定大小的容器
@@ -34,7 +94,16 @@ public class TaskContainer {
             throw new IllegalArgumentException();
         }
         this.lock = new ReentrantLock();
-        this.queue = new Node[initialCapacity];
+        this.notFull = lock.newCondition();
+        for (int i = 0; i < shedCounts.length; ++i){
+            shedCounts[i] = new LongAdder();
+        }
+        this.deadlines = new long[initialCapacity];
+        this.ids = new int[initialCapacity];
+        this.nodes = new Node[initialCapacity];
+        this.slots = new int[initialCapacity];
+        this.priorities = new int[initialCapacity];
+        this.positions = new HashMap<>();
     }
 
     /**
@@ -44,6 +113,111 @@ public class TaskContainer {
         this(DEFAULT_INITIAL_CAPACITY);
     }
 
+    @Autowired(required = false)
+    public void setMetrics(SchedulerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置容量，0表示不限制，默认为0
+     * <p>达到容量后按admissionPolicy处理新任务，数组不再扩容
+     */
+    public void setCapacity(int capacity) {
+        if(capacity < 0){
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        updateMaxSize();
+    }
+
+    /**
+     * 设置内存预算(字节)，0表示不限制，默认为0
+     * <p>按每个任务约128字节(不含参数)换算为容量，与setCapacity同时设置时取较小者
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if(memoryBudget < 0){
+            throw new IllegalArgumentException();
+        }
+        this.memoryBudget = memoryBudget;
+        updateMaxSize();
+    }
+
+    /**
+     * 设置达到上限时的处理方式，默认为REJECT
+     * <p>JournaledTaskQueue在日志锁内修改容器，不能使用BLOCK与CALLER_RUNS
+     */
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = admissionPolicy != null ? admissionPolicy : AdmissionPolicy.REJECT;
+    }
+
+    @Override
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * 设置BLOCK策略的最长等待时间(ms)，默认为0即不等待
+     */
+    public void setBlockTimeout(long blockTimeout) {
+        this.blockTimeout = blockTimeout;
+    }
+
+    /**
+     * 任务数上限，没有设置容量与内存预算时为Integer.MAX_VALUE
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 被指定策略舍弃的任务数：REJECT为拒绝数，BLOCK为等待超时数，
+     * DROP_FARTHEST为删除或未插入的最晚任务数，CALLER_RUNS为由提交线程执行的任务数
+     */
+    public long getShedCount(AdmissionPolicy policy) {
+        return shedCounts[policy.ordinal()].sum();
+    }
+
+    private void updateMaxSize(){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long max = capacity > 0 ? capacity : Long.MAX_VALUE;
+            if(memoryBudget > 0L){
+                max = Math.min(max, Math.max(1L, memoryBudget / ESTIMATED_TASK_BYTES));
+            }
+            maxSize = max >= MAX_ARRAY_SIZE ? Integer.MAX_VALUE : (int) max;
+            //上限提高时唤醒等待的线程
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取锁，设置了调度指标时记录等待时间
+     * @param lock 锁
+     */
+    private void acquire(ReentrantLock lock){
+        SchedulerMetrics metrics = this.metrics;
+        if(metrics == null){
+            lock.lock();
+        } else if(lock.tryLock()){
+            metrics.recordLockWait(0L);
+        } else{
+            long start = System.nanoTime();
+            lock.lock();
+            metrics.recordLockWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 支持所有可选操作
+     */
+    @Override
+    public boolean supports(Feature feature) {
+        return true;
+    }
+
     /**
      * 插入
      * @param time 时间
@@ -52,55 +226,639 @@ public class TaskContainer {
      * @param args 参数
      * @return boolean
      */
+    @Override
     public boolean put(Date time, Method method, Object clazz, Object[] args){
         if (time == null || method == null || clazz == null){ throw new NullPointerException();}
-        lock.lock();
-        int n, cap;
-        Node[] array;
-        while ((n = size) >= ((cap = (array = queue).length) - 1)){
-            tryGrow(array, cap);
+        return add(time.getTime(), new Node(method,clazz,args), false);
+    }
+
+    /**
+     * 插入周期任务，到期后原地计算下一次执行时间并调整位置，节点与回调只创建一次
+     * @param time 第一次执行时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param recurrence 重复规则
+     * @return 达到上限未插入时返回false，CALLER_RUNS策略只在提交线程执行一次
+     */
+    @Override
+    public boolean put(Date time, Method method, Object clazz, Object[] args, Recurrence recurrence){
+        return put(time, method, clazz, args, recurrence, true);
+    }
+
+    /**
+     * 插入周期任务
+     * @param time 第一次执行时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param recurrence 重复规则
+     * @param onlyIfAbsent 如果是false 则在同一次持锁中删除相同任务后插入
+     * @return 达到上限未插入时返回false，CALLER_RUNS策略只在提交线程执行一次
+     */
+    public boolean put(Date time, Method method, Object clazz, Object[] args, Recurrence recurrence, boolean onlyIfAbsent){
+        if (time == null || method == null || clazz == null || recurrence == null){ throw new NullPointerException();}
+        Node f = new Node(method,clazz,args);
+        f.recurrence = recurrence;
+        return add(time.getTime(), f, !onlyIfAbsent);
+    }
+
+    /**
+     * 插入并返回句柄
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 句柄
+     */
+    @Override
+    public TaskHandle schedule(Date time, Method method, Object clazz, Object[] args){
+        return schedule(time, method, clazz, args, 0, null);
+    }
+
+    /**
+     * 插入并返回句柄
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param priority 优先级，执行时间相同时数值大的先执行
+     * @param lane 执行回调的通道，为null时使用默认通道
+     * @return 句柄，达到上限未插入时返回null
+     */
+    @Override
+    public TaskHandle schedule(Date time, Method method, Object clazz, Object[] args, int priority, String lane){
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        Node f = new Node(method,clazz,args);
+        f.priority = priority;
+        f.lane = lane;
+        return add(time.getTime(), f, false) ? f : null;
+    }
+
+    /**
+     * 持锁按上限策略插入节点，CALLER_RUNS在释放锁后由当前线程执行回调
+     * @param deadline 执行时间(ms)
+     * @param f 节点
+     * @param replace 是否先删除相同任务
+     * @return 是否插入
+     */
+    private boolean add(long deadline, Node f, boolean replace){
+        int decision;
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            merge();
+            if(replace && size > 0){
+                Node same = positions.get(f);
+                if(same != null){
+                    discard(slots[same.id]);
+                }
+            }
+            decision = admit(deadline, f.priority);
+            if(decision == ADMITTED){
+                insert(deadline, f);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(decision == CALLER_RUNS){
+            runInCaller(deadline, f);
+        }
+        return decision == ADMITTED;
+    }
+
+    /**
+     * 检查是否还能插入新任务，达到上限时按策略处理，调用方需持有锁
+     * @param deadline 新任务执行时间(ms)
+     * @param priority 新任务优先级
+     * @return ADMITTED、SHED或CALLER_RUNS
+     * @throws RejectedExecutionException REJECT策略或BLOCK策略等待超时
+     */
+    private int admit(long deadline, int priority){
+        if(size < maxSize){
+            return ADMITTED;
+        }
+        switch (admissionPolicy) {
+            case BLOCK:
+                long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                try {
+                    while(size >= maxSize){
+                        if(nanos <= 0L){
+                            shed(AdmissionPolicy.BLOCK);
+                            throw new RejectedExecutionException("任务容器已满，等待超时: " + maxSize);
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                        merge();
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    shed(AdmissionPolicy.BLOCK);
+                    throw new RejectedExecutionException("等待任务容器空间时被中断", ex);
+                }
+                return ADMITTED;
+            case DROP_FARTHEST:
+                return evictFarthest(deadline, priority);
+            case CALLER_RUNS:
+                shed(AdmissionPolicy.CALLER_RUNS);
+                return CALLER_RUNS;
+            default:
+                shed(AdmissionPolicy.REJECT);
+                throw new RejectedExecutionException("任务容器已满: " + maxSize);
+        }
+    }
+
+    /**
+     * 删除执行时间最晚的任务为新任务腾出位置，新任务本身最晚时不插入，调用方需持有锁
+     * <p>最晚的任务一定在叶子中，只扫描后一半数组，固定延迟任务回调执行期间不删除
+     * @return ADMITTED或SHED
+     */
+    private int evictFarthest(long deadline, int priority){
+        int farthest = -1;
+        for(int p = (size >>> 1) + 1; p <= size; ++p){
+            if(deadlines[p] == Long.MAX_VALUE && nodes[ids[p]].running){
+                continue;
+            }
+            if(farthest < 0 || before(deadlines[farthest], ids[farthest], deadlines[p], ids[p])){
+                farthest = p;
+            }
+        }
+        shed(AdmissionPolicy.DROP_FARTHEST);
+        if(farthest < 0 || deadline > deadlines[farthest]
+                || (deadline == deadlines[farthest] && priority <= priorities[ids[farthest]])){
+            return SHED;
+        }
+        discard(farthest);
+        return ADMITTED;
+    }
+
+    private void shed(AdmissionPolicy policy){
+        shedCounts[policy.ordinal()].increment();
+        SchedulerMetrics metrics = this.metrics;
+        if(metrics != null){
+            metrics.addShedTask(policy);
+        }
+    }
+
+    /**
+     * CALLER_RUNS策略：在当前线程立即执行回调
+     */
+    private void runInCaller(long deadline, Node f){
+        ScheduledMethodRunnable runnable = new ScheduledMethodRunnable(f.getMethod(), f.getClazz(), f.getArgs(), deadline);
+        runnable.setMetrics(metrics);
+        runnable.run();
+    }
+
+    /**
+     * 原地修改执行时间，提前时向上调整，推后时向下调整，不删除节点也不查找索引
+     * <p>固定延迟任务回调执行期间不能调整
+     * @param handle schedule返回的句柄
+     * @param deadline 新的执行时间(ms)
+     * @return 任务仍在容器中并已调整返回true，句柄已失效返回false
+     */
+    @Override
+    public boolean reschedule(TaskHandle handle, long deadline){
+        if(!(handle instanceof Node)){
+            return false;
+        }
+        Node node = (Node) handle;
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            merge();
+            if(!contains(node) || node.running){
+                return false;
+            }
+            int p = slots[node.id];
+            long previous = deadlines[p];
+            RemovalListener listener = this.removalListener;
+            if(listener != null){
+                listener.removed(previous, node.getMethod(), node.getArgs());
+            }
+            deadlines[p] = deadline;
+            if(deadline < previous){
+                circleSwap(p);
+            }else if(deadline > previous){
+                headify(p);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean setTimeout(TaskHandle handle, long timeout){
+        if(!(handle instanceof Node)){
+            return false;
+        }
+        Node node = (Node) handle;
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            merge();
+            if(!contains(node)){
+                return false;
+            }
+            node.timeout = timeout;
+            if(node.task != null){
+                ((ScheduledMethodRunnable) node.task.getRunnable()).setTimeout(timeout);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 节点是否仍在堆中，调用方需持有锁
+     * @param node 节点
+     */
+    private boolean contains(Node node){
+        return node.id >= 0 && node.id < nodes.length && nodes[node.id] == node;
+    }
+
+    @Override
+    public void setRescheduleListener(RescheduleListener listener) {
+        this.rescheduleListener = listener;
+    }
+
+    @Override
+    public void setRemovalListener(RemovalListener listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * 无锁提交任务，任务在下一次持锁操作前合并进堆
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param onlyIfAbsent 如果是true 则不删除原有数据
+     */
+    @Override
+    public void offer(Date time, Method method, Object clazz, Object[] args, boolean onlyIfAbsent){
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        int max = maxSize;
+        if(max == Integer.MAX_VALUE){
+            inbox.offer(new Pending(time.getTime(), new Node(method,clazz,args), onlyIfAbsent, false));
+            return;
+        }
+        //接近上限时在锁内插入，由提交线程按策略等待、拒绝或执行
+        if(size + pendingCount.get() >= max){
+            add(time.getTime(), new Node(method,clazz,args), !onlyIfAbsent);
+            return;
         }
-        Node f = new Node(time,method,clazz,args);
+        pendingCount.incrementAndGet();
+        inbox.offer(new Pending(time.getTime(), new Node(method,clazz,args), onlyIfAbsent, true));
+    }
+
+    /**
+     * 将无锁队列中的任务按提交顺序合并进堆，调用方需持有锁
+     */
+    private void merge(){
+        Pending pending;
+        while(!inbox.isEmpty()){
+            //扩容会临时释放锁，需在取出任务前完成，保证合并顺序
+            ensureCapacity();
+            if((pending = inbox.poll()) == null){
+                break;
+            }
+            if(pending.counted){
+                pendingCount.decrementAndGet();
+            }
+            if(!pending.onlyIfAbsent && size > 0){
+                Node same = positions.get(pending.node);
+                if(same != null){
+                    discard(slots[same.id]);
+                }
+            }
+            //合并时不能等待或在提交线程执行，超出上限的任务除DROP_FARTHEST外直接舍弃
+            if(size >= maxSize){
+                if(admissionPolicy != AdmissionPolicy.DROP_FARTHEST){
+                    shed(admissionPolicy);
+                    continue;
+                }
+                if(evictFarthest(pending.deadline, pending.node.priority) == SHED){
+                    continue;
+                }
+            }
+            insert(pending.deadline, pending.node);
+        }
+    }
+
+    /**
+     * 批量插入，持有一次锁完成；新增数量不少于现有数量时追加后按Floyd算法整体建堆(O(n))，否则逐个上浮；
+     * 超出上限时逐个按策略插入，REJECT策略抛出异常时已插入的任务保留
+     * @param tasks 任务
+     * @param onlyIfAbsent 如果是true 则不删除原有数据，否则同一批中相同任务只保留最后一个
+     * @return 插入数量
+     */
+    @Override
+    public int putAll(Collection<? extends TaskDefinition> tasks, boolean onlyIfAbsent){
+        int k = tasks.size();
+        long[] batchDeadlines = new long[k];
+        Node[] batchNodes = new Node[k];
+        Map<Node, Integer> latest = onlyIfAbsent ? null : new HashMap<>(k * 4 / 3 + 1);
+        int count = 0;
+        for (TaskDefinition task : tasks) {
+            Node f = new Node(task.getMethod(), task.getClazz(), task.getArgs());
+            if (latest != null) {
+                Integer previous = latest.put(f, count);
+                if (previous != null) {
+                    batchNodes[previous] = null;
+                }
+            }
+            batchDeadlines[count] = task.getTime().getTime();
+            batchNodes[count++] = f;
+        }
+
+        boolean[] callerRuns = null;
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
         try {
-            ++n;
-            array[n] = f;
-            circleSwap(n,array);
+            merge();
+            //扩容会临时释放锁，需在删除原有任务前完成
+            int max = maxSize;
+            ensureCapacity(max == Integer.MAX_VALUE ? count : Math.max(0, Math.min(count, max - size)));
+            if (!onlyIfAbsent) {
+                for (int i = 0; i < count; ++i) {
+                    Node same;
+                    if (batchNodes[i] != null && size > 0 && (same = positions.get(batchNodes[i])) != null) {
+                        discard(slots[same.id]);
+                    }
+                }
+            }
 
+            if (max != Integer.MAX_VALUE) {
+                int remaining = 0;
+                for (int i = 0; i < count; ++i) {
+                    if (batchNodes[i] != null) {
+                        ++remaining;
+                    }
+                }
+                if (size + remaining > max) {
+                    callerRuns = new boolean[count];
+                    int added = 0;
+                    for (int i = 0; i < count; ++i) {
+                        Node f = batchNodes[i];
+                        if (f == null) {
+                            continue;
+                        }
+                        int decision = admit(batchDeadlines[i], f.priority);
+                        if (decision == CALLER_RUNS) {
+                            callerRuns[i] = true;
+                        } else if (decision == ADMITTED) {
+                            insert(batchDeadlines[i], f);
+                            ++added;
+                        }
+                    }
+                    return added;
+                }
+            }
+
+            int n = size;
+            int start = n + 1;
+            for (int i = 0; i < count; ++i) {
+                Node f = batchNodes[i];
+                if (f == null) {
+                    continue;
+                }
+                int id = allocateId();
+                f.id = id;
+                nodes[id] = f;
+                priorities[id] = f.priority;
+                link(f);
+
+                ++n;
+                deadlines[n] = batchDeadlines[i];
+                ids[n] = id;
+                slots[id] = n;
+            }
             size = n;
+
+            int added = n - start + 1;
+            if (added >= start - 1) {
+                for (int p = n >>> 1; p >= START_POSITION; --p) {
+                    headify(p);
+                }
+            } else {
+                for (int p = start; p <= n; ++p) {
+                    circleSwap(p);
+                }
+            }
+            return added;
         } finally {
             lock.unlock();
+            //CALLER_RUNS策略未插入的任务在释放锁后执行
+            if (callerRuns != null) {
+                for (int i = 0; i < count; ++i) {
+                    if (callerRuns[i]) {
+                        runInCaller(batchDeadlines[i], batchNodes[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 插入节点，容量不足时扩容，调用方需持有锁
+     * @param deadline 执行时间(ms)
+     * @param f 节点
+     */
+    private void insert(long deadline, Node f){
+        ensureCapacity();
+
+        int id = allocateId();
+        f.id = id;
+        nodes[id] = f;
+        priorities[id] = f.priority;
+        link(f);
+
+        int n = size + 1;
+        deadlines[n] = deadline;
+        ids[n] = id;
+        slots[id] = n;
+        circleSwap(n);
+
+        size = n;
+    }
+
+    /**
+     * 保证至少还能容纳一个元素，调用方需持有锁
+     */
+    private void ensureCapacity(){
+        ensureCapacity(1);
+    }
+
+    /**
+     * 保证至少还能容纳count个元素，调用方需持有锁
+     * @param count 元素数量
+     */
+    private void ensureCapacity(int count){
+        int cap;
+        long[] array;
+        while (size + count >= (cap = (array = deadlines).length)){
+            tryGrow(array, cap, size + count + 1);
         }
-        return true;
     }
 
     /**
      * 删除头结点
      * @return boolean
      */
+    @Override
     public boolean removeHead(){
         final ReentrantLock lock = this.lock;
-        lock.lock();
-        int n;
+        acquire(lock);
         try {
-            if((n = size) == 0){
+            merge();
+            if(size == 0){
                 return false;
             }
+            fireHead(System.currentTimeMillis());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            queue[START_POSITION] = queue[n];
-            queue[n] = null;
-            --n;
-            size = n;
+    /**
+     * 取出所有执行时间不晚于now的任务
+     * @param now 当前时间(ms)
+     * @param sink 接收到期任务
+     * @return 取出的任务数量
+     */
+    @Override
+    public int drainExpired(long now, Collection<? super ScheduledExecutorTask> sink){
+        return drainExpired(now, sink, Integer.MAX_VALUE);
+    }
 
-            if(n == START_POSITION){
-                return true;
+    /**
+     * 按执行时间顺序取出最多max个执行时间不晚于now的任务
+     * @param now 当前时间(ms)
+     * @param sink 接收到期任务
+     * @param max 最多取出的数量
+     * @return 取出的任务数量
+     */
+    public int drainExpired(long now, Collection<? super ScheduledExecutorTask> sink, int max){
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        int count = 0;
+        try {
+            merge();
+            while(count < max && size > 0 && deadlines[START_POSITION] <= now){
+                sink.add(createTask(START_POSITION, true));
+                fireHead(now);
+                ++count;
             }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            headify(START_POSITION);
+    /**
+     * 二叉堆按头任务注册，不需要刻度推进
+     */
+    @Override
+    public long getTickDuration() {
+        return 0L;
+    }
 
-            return true;
+    /**
+     * 头任务到期：一次性任务删除；周期任务原地改为下一次执行时间后向下调整，
+     * 固定延迟任务执行期间执行时间为Long.MAX_VALUE，调用方需持有锁
+     * @param now 当前时间(ms)
+     */
+    private void fireHead(long now){
+        Node node = nodes[ids[START_POSITION]];
+        Recurrence recurrence = node.recurrence;
+        if(recurrence == null){
+            removeAt(START_POSITION);
+            return;
+        }
+
+        long next;
+        if(recurrence.isFixedDelay()){
+            if(node.completedAt != 0L){
+                //回调先于到期处理执行结束
+                next = node.completedAt + recurrence.getPeriod();
+                node.completedAt = 0L;
+            }else{
+                node.running = true;
+                next = Long.MAX_VALUE;
+            }
+        }else{
+            next = recurrence.nextDeadline(deadlines[START_POSITION], now);
+        }
+        if(next < 0L){
+            removeAt(START_POSITION);
+            return;
+        }
+        deadlines[START_POSITION] = next;
+        headify(START_POSITION);
+    }
+
+    /**
+     * 固定延迟任务回调执行结束，按结束时间重新计算执行时间并向上调整
+     * @param node 节点
+     */
+    private void complete(Node node){
+        long deadline;
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            //执行期间已被删除或替换
+            if(!contains(node)){
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if(!node.running){
+                node.completedAt = now;
+                return;
+            }
+            node.running = false;
+            int p = slots[node.id];
+            deadline = now + node.recurrence.getPeriod();
+            deadlines[p] = deadline;
+            circleSwap(p);
         } finally {
             lock.unlock();
         }
+        RescheduleListener listener = this.rescheduleListener;
+        if(listener != null){
+            listener.rescheduled(deadline);
+        }
+    }
+
+    /**
+     * 删除指定位置的节点，用最后一个节点填补后视情况向下或向上调整，调用方需持有锁
+     * @param p 节点位置
+     */
+    private void removeAt(int p){
+        int n = size;
+        int id = ids[p];
+        unlink(nodes[id]);
+        releaseId(id);
+
+        long lastDeadline = deadlines[n];
+        int lastId = ids[n];
+        size = --n;
+        if(maxSize != Integer.MAX_VALUE){
+            notFull.signal();
+        }
+
+        if(p > n){
+            return;
+        }
+
+        deadlines[p] = lastDeadline;
+        ids[p] = lastId;
+        slots[lastId] = p;
+        headify(p);
+        if(ids[p] == lastId){
+            circleSwap(p);
+        }
     }
 
     /**
@@ -111,12 +869,13 @@ public class TaskContainer {
      * @param args 参数
      * @return int
      */
+    @Override
     public int remove(Date time, Method method, Object clazz, Object[] args){
         final ReentrantLock lock = this.lock;
-        lock.lock();
-        int n;
+        acquire(lock);
         try{
-            if((n = size) == 0){
+            merge();
+            if(size == 0){
                 return -1;
             }
 
@@ -126,64 +885,122 @@ public class TaskContainer {
             }
 
             rangeCheck(index);
+            discard(index);
 
-            queue[index] = queue[n];
-            queue[n] = null;
-            --n;
-            size = n;
+            return index;
+        }finally {
+            lock.unlock();
+        }
+    }
 
-            if(n == START_POSITION){
-                return index;
+    /**
+     * 删除执行时间与回调方法、参数都相同的节点，相同任务有多个时沿索引链查找
+     * @param deadline 执行时间(ms)
+     * @param method 方法
+     * @param args 参数
+     * @return 是否删除
+     */
+    @Override
+    public boolean removeExact(long deadline, Method method, Object[] args){
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try{
+            merge();
+            if(size == 0){
+                return false;
             }
-
-            headify(index);
-
-            return index;
+            for(Node node = positions.get(new Node(method,null,args)); node != null; node = node.sameNext){
+                int p = slots[node.id];
+                if(deadlines[p] == deadline){
+                    discard(p);
+                    return true;
+                }
+            }
+            return false;
         }finally {
             lock.unlock();
         }
     }
 
     /**
-     * 从位置p开始与子节点进行比较交换位置
+     * 通知后删除指定位置的节点，用于到期取出以外的删除，调用方需持有锁
+     * @param p 节点位置
+     */
+    private void discard(int p){
+        RemovalListener listener = this.removalListener;
+        if(listener != null){
+            Node node = nodes[ids[p]];
+            listener.removed(deadlines[p], node.getMethod(), node.getArgs());
+        }
+        removeAt(p);
+    }
+
+    /**
+     * 从位置p开始与子节点比较，将较早的子节点上移，直到找到p处节点的位置
      * @param p 比较起始位置
      */
     private void headify(int p){
-        Node[] array = queue;
-        int left, right;
-        int n = array.length;
-        Node l, r, node;
-        while(size >= p << 1){
-            left = p << 1;
-            right = (p << 1) + 1;
-
-            l = array[left];
-            if(n >= right){
-                r = array[right];
-                if(r != null && l.getTime().compareTo(r.getTime()) > 0){
-                    left = right;
-                    l = r;
-                }
+        long[] d = deadlines;
+        int[] h = ids;
+        int n = size;
+        long deadline = d[p];
+        int id = h[p];
+        int child;
+        while((child = p << 1) <= n){
+            if(child < n && before(d[child + 1], h[child + 1], d[child], h[child])){
+                ++child;
             }
-
-            node = array[p];
-            if(l.getTime().compareTo(node.getTime()) < 0){
-                swap(array,p,left);
-                p = left;
-            }else{
+            if(!before(d[child], h[child], deadline, id)){
                 break;
             }
+            d[p] = d[child];
+            h[p] = h[child];
+            slots[h[p]] = p;
+            p = child;
         }
+        d[p] = deadline;
+        h[p] = id;
+        slots[id] = p;
+    }
+
+    /**
+     * 从位置p开始与父节点比较，将较晚的父节点下移，直到找到p处节点的位置
+     * @param p 当前位置
+     */
+    private void circleSwap(int p){
+        long[] d = deadlines;
+        int[] h = ids;
+        long deadline = d[p];
+        int id = h[p];
+        int parent;
+        while((parent = p >>> 1) >= START_POSITION && before(deadline, id, d[parent], h[parent])){
+            d[p] = d[parent];
+            h[p] = h[parent];
+            slots[h[p]] = p;
+            p = parent;
+        }
+        d[p] = deadline;
+        h[p] = id;
+        slots[id] = p;
+    }
+
+    /**
+     * 堆中的先后顺序：执行时间早的在前，相同时优先级高的在前
+     */
+    private boolean before(long deadline, int id, long otherDeadline, int otherId){
+        return deadline < otherDeadline || (deadline == otherDeadline && priorities[id] > priorities[otherId]);
     }
 
     /**
      * 查询容器使用数量
      * @return int
      */
+    @Override
     public int size() {
         final ReentrantLock lock = this.lock;
-        lock.lock();
+        acquire(lock);
         try {
+            merge();
             return size;
         } finally {
             lock.unlock();
@@ -195,41 +1012,126 @@ public class TaskContainer {
      * @param time 比较时间
      * @return 如果大于头任务时间返回1，等于返回0，小于返回-1
      */
+    @Override
     public int compareFirstTime(Date time){
         final ReentrantLock lock = this.lock;
-        lock.lock();
+        acquire(lock);
         try {
-            rangeCheck(START_POSITION);
-            Node n = queue[START_POSITION];
-            int result = time.compareTo(n.getTime());
-            return result;
+            merge();
+            if(size == 0){
+                throw new IndexOutOfBoundsException();
+            }
+            return Long.compare(time.getTime(), deadlines[START_POSITION]);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long nextDeadline(){
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            merge();
+            return size > 0 ? deadlines[START_POSITION] : Long.MAX_VALUE;
         }finally {
             lock.unlock();
         }
     }
 
+    @Override
     public ScheduledExecutorTask getHeadTask(){
         final ReentrantLock lock = this.lock;
-        lock.lock();
-        Node node;
+        acquire(lock);
         try {
+            merge();
             if(size == 0){
                 throw new NullPointerException();
             }
-            node = queue[START_POSITION];
-            return createTask(node);
+            return createTask(START_POSITION, false);
         }finally {
             lock.unlock();
         }
     }
 
-    private ScheduledExecutorTask createTask(Node node){
-        Node n = node;
-        Long delayTime = ((delayTime = n.getTime().getTime() - System.currentTimeMillis()) > 0L) ? delayTime : 0L;
-        ScheduledMethodRunnable scheduledMethodRunnable = new ScheduledMethodRunnable(n.getMethod(),n.getClazz(),n.getArgs());
-        n.setRunnable(scheduledMethodRunnable);
-        n.setDelay(delayTime);
-        return n;
+    /**
+     * 按堆数组顺序复制所有任务，重新加载时putAll建堆无需移动
+     */
+    @Override
+    public List<TaskDefinition> snapshot(){
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            merge();
+            List<TaskDefinition> tasks = new ArrayList<>(size);
+            for(int i = START_POSITION; i <= size; ++i){
+                Node n = nodes[ids[i]];
+                tasks.add(new TaskDefinition(new Date(deadlines[i]), n.getMethod(), n.getClazz(), n.getArgs()));
+            }
+            return tasks;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按堆数组顺序复制执行时间与回调，锁内只创建四个数组
+     */
+    @Override
+    public TaskColumns snapshotColumns(){
+        final ReentrantLock lock = this.lock;
+        acquire(lock);
+        try {
+            merge();
+            long[] deadlineColumn = Arrays.copyOfRange(deadlines, START_POSITION, size + 1);
+            Method[] methods = new Method[size];
+            Object[] targets = new Object[size];
+            Object[][] args = new Object[size][];
+            for(int i = 0; i < size; ++i){
+                Node n = nodes[ids[i + START_POSITION]];
+                methods[i] = n.getMethod();
+                targets[i] = n.getClazz();
+                args[i] = n.getArgs();
+            }
+            return new TaskColumns(deadlineColumn, methods, targets, args);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 为堆中p位置的任务创建执行任务
+     * @param p 堆中位置
+     * @param dispatch 是否到期取出，周期任务取出后到执行结束前不再复用
+     * @return ScheduledExecutorTask
+     */
+    private ScheduledExecutorTask createTask(int p, boolean dispatch){
+        Node n = nodes[ids[p]];
+        long delayTime = deadlines[p] - System.currentTimeMillis();
+        //执行任务按节点缓存，重复注册同一个头任务与周期任务每次到期都不再创建；
+        //周期任务上一次执行尚未结束时另建，执行时间与超时记录不被本次到期覆盖
+        ScheduledExecutorTask task = n.task;
+        if(task == null || (task.getRunnable() instanceof RecurringRunnable
+                && ((RecurringRunnable) task.getRunnable()).busy)){
+            ScheduledMethodRunnable runnable;
+            if(n.recurrence == null){
+                runnable = new ScheduledMethodRunnable(n.getMethod(), n.getClazz(), n.getArgs());
+            }else if(n.recurrence.isFixedDelay()){
+                runnable = new FixedDelayRunnable(n);
+            }else{
+                runnable = new RecurringRunnable(n);
+            }
+            runnable.setTimeout(n.timeout);
+            task = n.task = new ScheduledExecutorTask(runnable);
+            task.setLane(n.lane);
+        }
+        ScheduledMethodRunnable runnable = (ScheduledMethodRunnable) task.getRunnable();
+        runnable.setTime(deadlines[p]);
+        if(dispatch && runnable instanceof RecurringRunnable){
+            ((RecurringRunnable) runnable).busy = true;
+        }
+        task.setDelay(delayTime > 0L ? delayTime : 0L);
+        return task;
     }
 
     private void rangeCheck(int index) {
@@ -247,107 +1149,220 @@ public class TaskContainer {
      * @return int
      */
     private int index(Date time, Method method, Object clazz, Object[] args){
-        int n = size;
-        Node[] tab = queue;
-        if(n <= 0){
+        if(size <= 0){
             return -1;
         }
 
-        Node node = new Node(time,method,clazz,args);
-        for(int i = START_POSITION; i < n; ++i){
-            if(node.equals(tab[i])){
-                return i;
-            }
-        }
-
-        return -1;
+        Node node = positions.get(new Node(method,clazz,args));
+        return node != null ? slots[node.id] : -1;
     }
 
     /**
-     * 循环比较大小
-     * @param p 当前位置
-     * @param array 循环数组
+     * 分配任务编号，优先复用空闲编号
+     * @return 任务编号
      */
-    private void circleSwap(int p,Node[] array){
-        if((p>>>1) < START_POSITION){
-            return;
+    private int allocateId(){
+        int id = freeId;
+        if(id >= 0){
+            freeId = slots[id];
+            return id;
         }
+        return nextId++;
+    }
 
-        Node n = array[p];
-        Node parent = array[p>>>1];
+    /**
+     * 释放任务编号
+     * @param id 任务编号
+     */
+    private void releaseId(int id){
+        nodes[id] = null;
+        slots[id] = freeId;
+        freeId = id;
+    }
 
-        if(n.getTime().compareTo(parent.getTime()) < 0){
-            swap(array,p>>>1, p);
-            circleSwap(p >>>1, array);
+    /**
+     * 将节点加入索引，相同任务的节点串联在一起
+     * @param node 节点
+     */
+    private void link(Node node){
+        Node same = positions.put(node, node);
+        if(same != null){
+            node.sameNext = same;
+            same.samePrev = node;
         }
     }
 
     /**
-     * 交换位置
-     * @param a 交换对象
-     * @param p 交换节点位置
-     * @param q 交换节点位置
+     * 从索引中移除节点
+     * @param node 节点
      */
-    private void swap(Node[] a, int p, int q){
-        Node t = a[p];
-        a[p] = a[q];
-        a[q] = t;
+    private void unlink(Node node){
+        Node prev = node.samePrev, next = node.sameNext;
+        if(prev != null){
+            prev.sameNext = next;
+        }else if(next != null){
+            positions.remove(node);
+            positions.put(next, next);
+        }else{
+            positions.remove(node);
+        }
+        if(next != null){
+            next.samePrev = prev;
+        }
+        node.samePrev = node.sameNext = null;
     }
 
     /**
-     * 尝试增长数组以容纳至少一个元素(但通常会扩大约50%)
+     * 尝试增长数组到至少minCapacity(但通常会扩大约50%)
      * @param array
      * @param oldCap
+     * @param minCapacity
      */
-    private void tryGrow(Node[] array, int oldCap) {
+    private void tryGrow(long[] array, int oldCap, int minCapacity) {
         lock.unlock();
-        Node[] newArray = null;
+        long[] newDeadlines = null;
+        int[] newIds = null;
+        int[] newSlots = null;
+        int[] newPriorities = null;
+        Node[] newNodes = null;
         if (allocationSpinLock.compareAndSet(0,1)) {
             try {
                 int newCap = oldCap + ((oldCap < 64) ?
                         (oldCap + 2) :
                         (oldCap >> 1));
+                if (newCap - minCapacity < 0) {
+                    newCap = minCapacity;
+                }
+                //设置了上限时不超过上限分配
+                int limit = maxSize;
+                if (limit != Integer.MAX_VALUE && newCap > limit + 1 && minCapacity <= limit + 1) {
+                    newCap = limit + 1;
+                }
                 if (newCap - MAX_ARRAY_SIZE > 0) {
-                    int minCap = oldCap + 1;
-                    if (minCap < 0 || minCap > MAX_ARRAY_SIZE){
+                    if (minCapacity < 0 || minCapacity > MAX_ARRAY_SIZE){
                         throw new OutOfMemoryError();
                     }
                     newCap = MAX_ARRAY_SIZE;
                 }
-                if (newCap > oldCap && queue == array){
-                    newArray = new Node[newCap];
+                if (newCap > oldCap && deadlines == array){
+                    newDeadlines = new long[newCap];
+                    newIds = new int[newCap];
+                    newSlots = new int[newCap];
+                    newPriorities = new int[newCap];
+                    newNodes = new Node[newCap];
                 }
             } finally {
                 allocationSpinLock.set(0);
             }
         }
-        if (newArray == null){
+        if (newDeadlines == null){
             Thread.yield();
         }
         lock.lock();
-        if (newArray != null && queue == array) {
-            queue = newArray;
-            System.arraycopy(array, 0, newArray, 0, oldCap);
+        if (newDeadlines != null && deadlines == array) {
+            System.arraycopy(array, 0, newDeadlines, 0, oldCap);
+            System.arraycopy(ids, 0, newIds, 0, oldCap);
+            System.arraycopy(slots, 0, newSlots, 0, oldCap);
+            System.arraycopy(priorities, 0, newPriorities, 0, oldCap);
+            System.arraycopy(nodes, 0, newNodes, 0, oldCap);
+            ids = newIds;
+            slots = newSlots;
+            priorities = newPriorities;
+            nodes = newNodes;
+            deadlines = newDeadlines;
         }
     }
 
-    static class Node extends ScheduledExecutorTask{
-        final Date time;
+    /**
+     * 固定延迟任务的回调，执行结束后通知容器重新计算执行时间，异步回调以返回的CompletionStage完成为结束
+     */
+    private final class FixedDelayRunnable extends ScheduledMethodRunnable{
+        private final Node node;
+
+        FixedDelayRunnable(Node node){
+            super(node.getMethod(), node.getClazz(), node.getArgs());
+            this.node = node;
+        }
+
+        @Override
+        protected void completed() {
+            complete(node);
+        }
+    }
+
+    /**
+     * 固定频率与cron周期任务的回调，从到期取出或开始执行到执行结束期间不被下一次到期复用
+     */
+    private static final class RecurringRunnable extends ScheduledMethodRunnable{
+        /**已取出或正在执行*/
+        volatile boolean busy;
+
+        RecurringRunnable(Node node){
+            super(node.getMethod(), node.getClazz(), node.getArgs());
+        }
+
+        @Override
+        public void run() {
+            //按头任务注册时直接执行，没有经过到期取出
+            busy = true;
+            super.run();
+        }
+
+        @Override
+        protected void completed() {
+            busy = false;
+        }
+    }
+
+    /**
+     * 等待合并的任务
+     */
+    static final class Pending{
+        final long deadline;
+        final Node node;
+        final boolean onlyIfAbsent;
+        /**是否计入pendingCount*/
+        final boolean counted;
+
+        Pending(long deadline, Node node, boolean onlyIfAbsent, boolean counted){
+            this.deadline = deadline;
+            this.node = node;
+            this.onlyIfAbsent = onlyIfAbsent;
+            this.counted = counted;
+        }
+    }
+
+    /**
+     * 任务内容，执行时间保存在堆数组中
+     */
+    static class Node implements TaskHandle{
         final Method method;
         final Object clazz;
         final Object[] args;
+        /**任务编号*/
+        int id;
+        Node samePrev, sameNext;
+        /**重复规则，一次性任务为null*/
+        Recurrence recurrence;
+        /**固定延迟任务回调是否正在执行*/
+        boolean running;
+        /**固定延迟任务回调先于到期处理结束时的结束时间*/
+        long completedAt;
+        /**缓存的执行任务，第一次作为头任务或到期时创建*/
+        ScheduledExecutorTask task;
+        /**优先级，执行时间相同时数值大的先执行*/
+        int priority;
+        /**执行回调的通道，null为默认通道*/
+        String lane;
+        /**回调执行超时(ms)，0为默认超时*/
+        long timeout;
 
-        Node(Date time,Method method,Object clazz,Object[] args){
-            this.time = time;
+        Node(Method method,Object clazz,Object[] args){
             this.method = method;
             this.clazz = clazz;
             this.args = args;
         }
 
-        public final Date getTime() {
-            return time;
-        }
-
         public final Method getMethod() {
             return method;
         }
@@ -360,6 +1375,10 @@ public class TaskContainer {
             return args;
         }
 
+        public final String getLane() {
+            return lane;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) {
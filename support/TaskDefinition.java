@@ -0,0 +1,45 @@
+package com.sumavision.launcher.task.support;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+
+/**
+ * <p>功能描述：批量添加任务时使用的任务描述<p/>
+ * @author chen qi
+ */
+public class TaskDefinition {
+    private final Date time;
+    private final Method method;
+    private final Object clazz;
+    private final Object[] args;
+
+    /**
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     */
+    public TaskDefinition(Date time, Method method, Object clazz, Object[] args) {
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        this.time = time;
+        this.method = method;
+        this.clazz = clazz;
+        this.args = args;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Object getClazz() {
+        return clazz;
+    }
+
+    public Object[] getArgs() {
+        return args;
+    }
+}
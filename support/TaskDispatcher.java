@@ -0,0 +1,120 @@
+package com.sumavision.launcher.task.support;
+
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>功能描述：单线程派发，线程挂起到头任务的执行时间，到期后取出所有到期任务提交给回调线程池<p/>
+ * <p>新任务早于挂起时间时只唤醒派发线程重新计算，头任务变化不再取消、重新注册定时任务<p/>
+ * <p>提交被拒绝与容器抛出的异常交给派发线程的UncaughtExceptionHandler，派发线程继续运行<p/>
+ * @author chen qi
+ */
+final class TaskDispatcher implements Runnable {
+    /**容器抛出异常后重试的间隔(ms)*/
+    private static final long RETRY_DELAY = 100L;
+    private final TaskScheduling taskScheduling;
+    private final TaskQueue taskContainer;
+    /**派发线程挂起到的执行时间，派发期间为Long.MAX_VALUE*/
+    private final AtomicLong parkedUntil = new AtomicLong(Long.MAX_VALUE);
+    private final List<ScheduledExecutorTask> expiredTasks = new ArrayList<>();
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    TaskDispatcher(TaskScheduling taskScheduling) {
+        this.taskScheduling = taskScheduling;
+        this.taskContainer = taskScheduling.getObject();
+    }
+
+    synchronized void start() {
+        if(thread != null){
+            return;
+        }
+        running = true;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskDispatcher-");
+        threadFactory.setDaemon(true);
+        thread = threadFactory.newThread(this);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        Thread current = thread;
+        if(current == null){
+            return;
+        }
+        running = false;
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * 仅当deadline早于挂起时间时唤醒派发线程
+     * @param deadline 执行时间(ms)
+     */
+    void wakeup(long deadline) {
+        long parked;
+        while(deadline < (parked = parkedUntil.get())){
+            if(parkedUntil.compareAndSet(parked, deadline)){
+                LockSupport.unpark(thread);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while(running){
+            //读取头任务前先放开挂起时间，派发期间提交的任务都会留下一次唤醒，不会错过更早的任务
+            parkedUntil.set(Long.MAX_VALUE);
+            long next;
+            try {
+                dispatch();
+                next = taskContainer.nextDeadline();
+            } catch (Throwable ex) {
+                report(ex);
+                next = System.currentTimeMillis() + RETRY_DELAY;
+            }
+
+            long parked = parkedUntil.accumulateAndGet(next, Math::min);
+            if(parked == Long.MAX_VALUE){
+                LockSupport.park(this);
+            }else if(parked > System.currentTimeMillis()){
+                LockSupport.parkUntil(this, parked);
+            }
+        }
+    }
+
+    private void dispatch() {
+        SchedulerMetrics metrics = taskScheduling.getMetrics();
+        if(metrics != null){
+            metrics.recordQueueDepth(taskContainer.size());
+        }
+
+        taskContainer.drainExpired(System.currentTimeMillis(), expiredTasks);
+        try {
+            for(int i = 0, n = expiredTasks.size(); i < n; ++i){
+                try {
+                    taskScheduling.executeTask(expiredTasks.get(i));
+                } catch (RuntimeException ex) {
+                    //回调线程池拒绝时报告后继续提交同一批的其他任务
+                    report(ex);
+                }
+            }
+        } finally {
+            expiredTasks.clear();
+        }
+    }
+
+    private static void report(Throwable ex) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+    }
+}
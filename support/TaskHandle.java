@@ -0,0 +1,22 @@
+package com.sumavision.launcher.task.support;
+
+import java.lang.reflect.Method;
+
+/**
+ * <p>功能描述：插入任务时返回的句柄，用于原地调整执行时间<p/>
+ * <p>任务到期、被删除或被相同任务替换后句柄失效<p/>
+ * @author chen qi
+ */
+public interface TaskHandle {
+
+    Method getMethod();
+
+    Object getClazz();
+
+    Object[] getArgs();
+
+    /**
+     * 执行回调的通道，null为默认通道
+     */
+    String getLane();
+}
@@ -0,0 +1,278 @@
+package com.sumavision.launcher.task.support;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>功能描述：任务容器抽象，TaskScheduling通过该接口存取待执行任务<p/>
+ * <p>默认实现为二叉堆{@link TaskContainer}，大量短周期任务可使用时间轮{@link TimingWheelContainer}<p/>
+ * @author chen qi
+ */
+public interface TaskQueue {
+
+    /**
+     * 插入
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return boolean
+     */
+    boolean put(Date time, Method method, Object clazz, Object[] args);
+
+    /**
+     * 是否支持可选操作，调用方在修改容器之前检查，不支持的操作抛出UnsupportedOperationException
+     * <p>默认都不支持
+     * @param feature 可选操作
+     * @return boolean
+     */
+    default boolean supports(Feature feature){
+        return false;
+    }
+
+    /**
+     * 插入周期任务，到期后由容器原地计算下一次执行时间，不再重新插入
+     * <p>默认不支持
+     * @param time 第一次执行时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param recurrence 重复规则
+     * @return boolean
+     */
+    default boolean put(Date time, Method method, Object clazz, Object[] args, Recurrence recurrence){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持周期任务");
+    }
+
+    /**
+     * 插入并返回句柄，之后可以通过reschedule原地调整执行时间
+     * <p>默认不支持
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 句柄
+     */
+    default TaskHandle schedule(Date time, Method method, Object clazz, Object[] args){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持任务句柄");
+    }
+
+    /**
+     * 插入带优先级与通道的任务并返回句柄
+     * <p>默认不支持
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param priority 优先级，执行时间相同时数值大的先执行
+     * @param lane 执行回调的通道，为null时使用默认通道
+     * @return 句柄
+     */
+    default TaskHandle schedule(Date time, Method method, Object clazz, Object[] args, int priority, String lane){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持优先级与通道");
+    }
+
+    /**
+     * 原地调整任务的执行时间
+     * <p>默认不支持
+     * @param handle schedule返回的句柄
+     * @param deadline 新的执行时间(ms)
+     * @return 任务仍在容器中并已调整返回true，句柄已失效返回false
+     */
+    default boolean reschedule(TaskHandle handle, long deadline){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持任务句柄");
+    }
+
+    /**
+     * 设置单个任务的回调执行超时，覆盖TaskScheduling的默认超时
+     * <p>默认不支持
+     * @param handle schedule返回的句柄
+     * @param timeout 超时(ms)，0表示使用默认超时
+     * @return 任务仍在容器中并已设置返回true，句柄已失效返回false
+     */
+    default boolean setTimeout(TaskHandle handle, long timeout){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持任务句柄");
+    }
+
+    /**
+     * 达到容量上限时对新任务的处理方式
+     * <p>默认没有上限，返回REJECT
+     * @return AdmissionPolicy
+     */
+    default AdmissionPolicy getAdmissionPolicy(){
+        return AdmissionPolicy.REJECT;
+    }
+
+    /**
+     * 设置执行时间变化的通知，固定延迟任务执行结束后重新计算执行时间时调用
+     * <p>默认不支持周期任务，不需要通知
+     * @param listener 通知
+     */
+    default void setRescheduleListener(RescheduleListener listener){
+    }
+
+    /**
+     * 设置任务离开容器的通知，用于按实际结果记录日志
+     * <p>默认不支持
+     * @param listener 通知
+     */
+    default void setRemovalListener(RemovalListener listener){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持删除通知");
+    }
+
+    /**
+     * 提交任务，容器可以先缓冲到无锁队列，在下一次持锁操作前合并
+     * <p>默认实现直接删除原有任务后插入
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param onlyIfAbsent 如果是true 则不删除原有数据
+     */
+    default void offer(Date time, Method method, Object clazz, Object[] args, boolean onlyIfAbsent){
+        if(!onlyIfAbsent){
+            remove(time, method, clazz, args);
+        }
+        put(time, method, clazz, args);
+    }
+
+    /**
+     * 批量插入
+     * <p>默认实现逐个提交
+     * @param tasks 任务
+     * @param onlyIfAbsent 如果是true 则不删除原有数据
+     * @return 插入数量
+     */
+    default int putAll(Collection<? extends TaskDefinition> tasks, boolean onlyIfAbsent){
+        for(TaskDefinition task : tasks){
+            offer(task.getTime(), task.getMethod(), task.getClazz(), task.getArgs(), onlyIfAbsent);
+        }
+        return tasks.size();
+    }
+
+    /**
+     * 删除头结点
+     * @return boolean
+     */
+    boolean removeHead();
+
+    /**
+     * 删除节点
+     * @param time 时间
+     * @param method 方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 被删除节点的位置，没有找到返回-1
+     */
+    int remove(Date time, Method method, Object clazz, Object[] args);
+
+    /**
+     * 删除执行时间与回调方法、参数都相同的任务，相同任务有多个时按执行时间区分
+     * <p>默认不支持
+     * @param deadline 执行时间(ms)
+     * @param method 方法
+     * @param args 参数
+     * @return 是否删除
+     */
+    default boolean removeExact(long deadline, Method method, Object[] args){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持按执行时间删除");
+    }
+
+    /**
+     * 查询容器使用数量
+     * @return int
+     */
+    int size();
+
+    /**
+     * 与第一个任务比较时间
+     * @param time 比较时间
+     * @return 如果大于头任务时间返回1，等于返回0，小于返回-1
+     */
+    int compareFirstTime(Date time);
+
+    /**
+     * 获取头任务
+     * @return ScheduledExecutorTask
+     */
+    ScheduledExecutorTask getHeadTask();
+
+    /**
+     * 头任务的执行时间
+     * <p>默认通过头任务的延期时间换算
+     * @return 执行时间(ms)，容器为空返回Long.MAX_VALUE
+     */
+    default long nextDeadline(){
+        if(size() == 0){
+            return Long.MAX_VALUE;
+        }
+        return System.currentTimeMillis() + getHeadTask().getDelay();
+    }
+
+    /**
+     * 取出所有执行时间不晚于now的任务
+     * @param now 当前时间(ms)
+     * @param sink 接收到期任务
+     * @return 取出的任务数量
+     */
+    int drainExpired(long now, Collection<? super ScheduledExecutorTask> sink);
+
+    /**
+     * 复制容器中的所有任务，用于持久化快照
+     * @return 任务，顺序不保证按执行时间
+     */
+    List<TaskDefinition> snapshot();
+
+    /**
+     * 按列复制容器中的所有任务，不为每个任务创建对象，持有锁时使用
+     * @return 任务列，顺序不保证按执行时间
+     */
+    default TaskColumns snapshotColumns(){
+        return TaskColumns.of(snapshot());
+    }
+
+    /**
+     * 容器推进刻度(ms)
+     * @return 大于0表示容器需要按刻度调用drainExpired推进，0表示按头任务注册
+     */
+    long getTickDuration();
+
+    /**
+     * 容器的可选操作
+     */
+    enum Feature {
+        /**周期任务put(..., Recurrence)*/
+        RECURRENCE,
+        /**schedule、reschedule与setTimeout*/
+        HANDLES,
+        /**带优先级与通道的schedule*/
+        PRIORITY_LANES,
+        /**setRemovalListener与removeExact*/
+        REMOVAL_TRACKING
+    }
+
+    /**
+     * 容器在锁外调用，实现不应阻塞
+     */
+    interface RescheduleListener {
+        /**
+         * @param deadline 新的执行时间(ms)
+         */
+        void rescheduled(long deadline);
+    }
+
+    /**
+     * 任务以原执行时间离开容器时通知：被删除、被相同任务替换、超出上限被舍弃或调整执行时间；
+     * 到期取出与未进入容器的任务不通知。容器在锁内调用，实现不应阻塞
+     */
+    interface RemovalListener {
+        /**
+         * @param deadline 离开时的执行时间(ms)
+         * @param method 回调方法
+         * @param args 参数
+         */
+        void removed(long deadline, Method method, Object[] args);
+    }
+}
@@ -1,29 +1,150 @@
 package com.sumavision.launcher.task.support;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ErrorHandler;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * <p>任务容器由注入的TaskQueue决定：默认为二叉堆TaskContainer，按头任务注册；
+ * 注入TimingWheelContainer时按刻度推进时间轮<p/>
  * @author chen qi
  */
 @Component
-public class TaskScheduling {
-    private List<ScheduledFuture> futureList = new CopyOnWriteArrayList<>();
+public class TaskScheduling implements InitializingBean, DisposableBean {
+    /**已注册的回调与唤醒，读写都在futureList上同步，添加时不复制数组*/
+    private final List<ScheduledFuture<?>> futureList = new ArrayList<>();
     private static final int START_POSITION = 1;
-    private TaskContainer exposedContainer;
+    private TaskQueue exposedContainer;
     private ScheduledExecutorFactory scheduledExecutorFactory;
+    /**定时器宽限(ms)，执行时间向后取整到宽限的整数倍，0表示不取整*/
+    private volatile long timerSlack = 0L;
+    /**按通道配置的定时器宽限(ms)，没有配置的通道使用timerSlack*/
+    private volatile Map<String, Long> laneSlack = Collections.emptyMap();
+    /**按名称配置的回调通道，每个通道使用自己的线程池*/
+    private volatile Map<String, ScheduledExecutorFactory> lanes = Collections.emptyMap();
+    /**时间轮推进任务*/
+    private volatile ScheduledFuture<?> tickerFuture;
+    /**是否每次唤醒批量提交所有到期任务*/
+    private volatile boolean batchDispatch = false;
+    /**是否由生产者无锁提交任务*/
+    private volatile boolean bufferedInsert = false;
+    /**是否由单个挂起的派发线程派发*/
+    private volatile boolean parkedDispatch = false;
+    private TaskDispatcher dispatcher;
+    /**已注册唤醒中最早的执行时间，没有唤醒时为Long.MAX_VALUE*/
+    private final AtomicLong armedDeadline = new AtomicLong(Long.MAX_VALUE);
+    /**按头任务注册时，修改容器与重新注册都持有该锁，唤醒后删除的一定是已注册的头任务*/
+    private final ReentrantLock headLock = new ReentrantLock();
+    /**调度指标，为空时不记录*/
+    private volatile SchedulerMetrics metrics;
+    /**所有唤醒共用的调度任务*/
+    private final TaskSchedulingRunnable schedulingRunnable;
+    /**回调执行超时检测，第一次设置超时时创建*/
+    private volatile TimeoutWheel timeoutWheel;
+    /**默认回调执行超时(ms)，0表示不限制*/
+    private volatile long callbackTimeout = 0L;
+    private volatile TimeoutPolicy timeoutPolicy = TimeoutPolicy.INTERRUPT;
+    /**回调异常处理，为空时按执行线程处理*/
+    private volatile ErrorHandler errorHandler;
 
     @Autowired
-    public TaskScheduling(TaskContainer exposedContainer,ScheduledExecutorFactory scheduledExecutorFactory){
+    public TaskScheduling(TaskQueue exposedContainer,ScheduledExecutorFactory scheduledExecutorFactory){
         this.exposedContainer = exposedContainer;
         this.scheduledExecutorFactory = scheduledExecutorFactory;
+        this.schedulingRunnable = new TaskSchedulingRunnable(this);
+        if(exposedContainer != null){
+            exposedContainer.setRescheduleListener(this::rescheduled);
+        }
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(SchedulerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public SchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置回调异常处理，默认为空
+     * <p>设置后同步回调抛出的异常、异步回调的失败与执行超时的TimeoutException都交给它；为空时同步回调的异常由执行线程池处理，
+     * 异步回调的失败交给完成它的线程的UncaughtExceptionHandler，执行超时交给超时检测线程的UncaughtExceptionHandler
+     * @see ScheduledMethodRunnable
+     */
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * 容器启动时已有任务(例如从日志恢复)，为其注册唤醒
+     */
+    @Override
+    public void afterPropertiesSet() {
+        registerExistingTasks();
+    }
+
+    /**
+     * 停止派发线程与超时检测线程
+     */
+    @Override
+    public void destroy() {
+        TaskDispatcher current;
+        TimeoutWheel wheel;
+        synchronized (this) {
+            current = dispatcher;
+            dispatcher = null;
+            wheel = timeoutWheel;
+            timeoutWheel = null;
+        }
+        if(current != null){
+            current.stop();
+        }
+        if(wheel != null){
+            wheel.stop();
+        }
+    }
+
+    /**
+     * 按当前派发方式为容器中已有的任务注册唤醒
+     */
+    public void registerExistingTasks(){
+        if(exposedContainer == null || exposedContainer.size() == 0){
+            return;
+        }
+
+        if(exposedContainer.getTickDuration() > 0){
+            startTicker();
+        } else if(isParkedDispatch()){
+            dispatcher().wakeup(exposedContainer.nextDeadline());
+        } else{
+            headLock.lock();
+            try {
+                reregisterHead();
+            } finally {
+                headLock.unlock();
+            }
+        }
     }
 
     /**
@@ -48,6 +169,238 @@ public class TaskScheduling {
         addTaskValue(time, method, clazz, args, true);
     }
 
+    /**
+     * 删除任务，删除的是已注册的头任务时重新注册
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 是否删除
+     */
+    public boolean removeTask(Date time, Method method, Object clazz, Object[] args){
+        if(exposedContainer == null || exposedContainer.size() == 0){
+            return false;
+        }
+
+        boolean headDispatch = lockHead();
+        try {
+            int index = exposedContainer.remove(time, method, clazz, args);
+            if(index == START_POSITION && headDispatch){
+                reregisterHead();
+            }
+            return index >= 0;
+        } finally {
+            unlockHead(headDispatch);
+        }
+    }
+
+    /**
+     * 批量添加任务，相同任务会替换原有任务
+     * <p>所有任务在一次加锁中建堆，之后只重新注册一次头任务
+     * @param tasks 任务
+     */
+    public void addTasks(Collection<? extends TaskDefinition> tasks){
+        if(exposedContainer == null || tasks == null || tasks.isEmpty()){
+            return;
+        }
+
+        tasks = coalesce(tasks);
+        boolean headDispatch = lockHead();
+        try {
+            exposedContainer.putAll(tasks, false);
+            if(headDispatch){
+                reregisterHead();
+                return;
+            }
+        } finally {
+            unlockHead(headDispatch);
+        }
+
+        if(exposedContainer.getTickDuration() > 0){
+            startTicker();
+        } else if(isParkedDispatch() || isBatchDispatch()){
+            long earliest = Long.MAX_VALUE;
+            for(TaskDefinition task : tasks){
+                earliest = Math.min(earliest, task.getTime().getTime());
+            }
+            if(isParkedDispatch()){
+                dispatcher().wakeup(earliest);
+            }else{
+                armWakeup(earliest);
+            }
+        }
+    }
+
+    /**
+     * 添加周期任务，相同任务会替换原有任务
+     * <p>任务保存在容器中，每次到期后由容器原地计算下一次执行时间，容器需支持周期任务
+     * @param time 第一次执行时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param recurrence 重复规则
+     */
+    public void addRecurringTask(Date time, Method method, Object clazz, Object[] args, Recurrence recurrence){
+        if(exposedContainer == null){
+            return;
+        }
+        require(TaskQueue.Feature.RECURRENCE);
+
+        time = coalesce(time, null);
+        boolean headDispatch = lockHead();
+        try {
+            int index = exposedContainer.size() > 0 ? exposedContainer.remove(time, method, clazz, args) : -1;
+            exposedContainer.put(time, method, clazz, args, recurrence);
+            if(headDispatch){
+                if(index == START_POSITION || time.getTime() <= exposedContainer.nextDeadline()){
+                    reregisterHead();
+                }
+                return;
+            }
+        } finally {
+            unlockHead(headDispatch);
+        }
+
+        if(exposedContainer.getTickDuration() > 0){
+            startTicker();
+        } else if(isParkedDispatch()){
+            dispatcher().wakeup(time.getTime());
+        } else{
+            armWakeup(time.getTime());
+        }
+    }
+
+    /**
+     * 添加任务并返回句柄，相同任务会替换原有任务，容器需支持任务句柄
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @return 句柄，用于reschedule
+     */
+    public TaskHandle schedule(Date time, Method method, Object clazz, Object[] args){
+        return schedule(time, method, clazz, args, 0, null);
+    }
+
+    /**
+     * 添加带优先级与通道的任务并返回句柄，相同任务会替换原有任务，容器需支持优先级与通道
+     * @param time 时间
+     * @param method 回调方法
+     * @param clazz Class
+     * @param args 参数
+     * @param priority 优先级，执行时间相同时数值大的先执行
+     * @param lane 执行回调的通道名称，为null时使用默认线程池
+     * @return 句柄，用于reschedule
+     */
+    public TaskHandle schedule(Date time, Method method, Object clazz, Object[] args, int priority, String lane){
+        if(exposedContainer == null){
+            return null;
+        }
+        //先检查容器与通道，不支持时不删除原有任务
+        require(TaskQueue.Feature.HANDLES);
+        if(priority != 0 || lane != null){
+            require(TaskQueue.Feature.PRIORITY_LANES);
+        }
+        laneFactory(lane);
+        time = coalesce(time, lane);
+
+        TaskHandle handle;
+        boolean headDispatch = lockHead();
+        try {
+            int index = exposedContainer.size() > 0 ? exposedContainer.remove(time, method, clazz, args) : -1;
+            handle = priority == 0 && lane == null ?
+                    exposedContainer.schedule(time, method, clazz, args) :
+                    exposedContainer.schedule(time, method, clazz, args, priority, lane);
+            if(headDispatch){
+                if(index == START_POSITION || time.getTime() <= exposedContainer.nextDeadline()){
+                    reregisterHead();
+                }
+                return handle;
+            }
+        } finally {
+            unlockHead(headDispatch);
+        }
+
+        if(exposedContainer.getTickDuration() > 0){
+            startTicker();
+        } else if(isParkedDispatch()){
+            dispatcher().wakeup(time.getTime());
+        } else{
+            armWakeup(time.getTime());
+        }
+        return handle;
+    }
+
+    /**
+     * 原地调整任务的执行时间，只在头任务变化时重新注册
+     * <p>派发线程与批量派发只在提前时唤醒，推后的任务由唤醒后重新计算
+     * @param handle schedule返回的句柄
+     * @param time 新的执行时间
+     * @return 任务已到期、被删除或被替换时返回false
+     */
+    public boolean reschedule(TaskHandle handle, Date time){
+        if(exposedContainer == null || handle == null){
+            return false;
+        }
+        require(TaskQueue.Feature.HANDLES);
+
+        long deadline = coalesce(time, handle.getLane()).getTime();
+        if(exposedContainer.getTickDuration() > 0){
+            //句柄有效时推进任务仍在运行，按刻度取出
+            return exposedContainer.reschedule(handle, deadline);
+        }
+        if(isParkedDispatch() || isBatchDispatch()){
+            if(!exposedContainer.reschedule(handle, deadline)){
+                return false;
+            }
+            if(isParkedDispatch()){
+                dispatcher().wakeup(deadline);
+            }else{
+                armWakeup(deadline);
+            }
+            return true;
+        }
+
+        headLock.lock();
+        try {
+            long head = exposedContainer.nextDeadline();
+            if(!exposedContainer.reschedule(handle, deadline)){
+                return false;
+            }
+            if(exposedContainer.nextDeadline() != head){
+                reregisterHead();
+            }
+            return true;
+        } finally {
+            headLock.unlock();
+        }
+    }
+
+    /**
+     * 固定延迟任务执行结束后重新进入容器，早于当前唤醒时重新注册
+     * @param deadline 新的执行时间(ms)
+     */
+    private void rescheduled(long deadline){
+        if(exposedContainer.getTickDuration() > 0){
+            return;
+        }
+
+        if(isParkedDispatch()){
+            dispatcher().wakeup(deadline);
+        } else if(isBatchDispatch()){
+            armWakeup(deadline);
+        } else{
+            headLock.lock();
+            try {
+                if(exposedContainer.nextDeadline() == deadline){
+                    reregisterHead();
+                }
+            } finally {
+                headLock.unlock();
+            }
+        }
+    }
+
     /**
      *
      * @param time 时间
@@ -61,27 +414,381 @@ public class TaskScheduling {
         if(exposedContainer == null){
             return;
         }
+        time = coalesce(time, null);
 
-        if(exposedContainer.size() > 0 && !onlyIfAbsent){
-            int index = exposedContainer.remove(time, method, clazz, args);
-            if(index == START_POSITION){
-                stopTask();
-                if(exposedContainer.size() > 0){
-                    registerHeadTask();
+        if(exposedContainer.getTickDuration() > 0){
+            addTickTask(time, method, clazz, args, onlyIfAbsent);
+            return;
+        }
+
+        if(isParkedDispatch()){
+            if(bufferedInsert){
+                exposedContainer.offer(time, method, clazz, args, onlyIfAbsent);
+            }else{
+                if(exposedContainer.size() > 0 && !onlyIfAbsent){
+                    exposedContainer.remove(time, method, clazz, args);
                 }
+                exposedContainer.put(time, method, clazz, args);
             }
+            dispatcher().wakeup(time.getTime());
+            return;
+        }
 
+        if(bufferedInsert){
+            exposedContainer.offer(time, method, clazz, args, onlyIfAbsent);
+            armWakeup(time.getTime());
+            return;
         }
 
-        if(exposedContainer.size() == 0){
-            exposedContainer.put(time,method,clazz,args);
-            registerHeadTask();
-        } else if(exposedContainer.compareFirstTime(time) < 0){
+        if(isBatchDispatch()){
+            if(exposedContainer.size() > 0 && !onlyIfAbsent){
+                exposedContainer.remove(time, method, clazz, args);
+            }
+            exposedContainer.put(time, method, clazz, args);
+            //唤醒随时可能取出到期任务，不比较头任务，只保证在该任务到期时唤醒
+            armWakeup(time.getTime());
+            return;
+        }
+
+        headLock.lock();
+        try {
+            int index = -1;
+            if(exposedContainer.size() > 0 && !onlyIfAbsent){
+                index = exposedContainer.remove(time, method, clazz, args);
+            }
+            long head = exposedContainer.nextDeadline();
             exposedContainer.put(time,method,clazz,args);
-            stopTask();
+            if(index == START_POSITION || time.getTime() < head){
+                reregisterHead();
+            }
+        } finally {
+            headLock.unlock();
+        }
+    }
+
+    /**
+     * 派发线程，第一次使用时启动
+     */
+    private synchronized TaskDispatcher dispatcher(){
+        if(dispatcher == null){
+            dispatcher = new TaskDispatcher(this);
+            dispatcher.start();
+        }
+        return dispatcher;
+    }
+
+    /**
+     * 按刻度推进的容器不需要注册头任务，只需保证推进任务在运行
+     */
+    private void addTickTask(Date time, Method method, Object clazz, Object[] args, boolean onlyIfAbsent){
+        exposedContainer.offer(time, method, clazz, args, onlyIfAbsent);
+        startTicker();
+    }
+
+    /**
+     * 启动时间轮推进任务
+     */
+    private synchronized void startTicker(){
+        if(tickerFuture == null){
+            long tickDuration = exposedContainer.getTickDuration();
+            tickerFuture = scheduledExecutorFactory.getObject().scheduleAtFixedRate(
+                    schedulingRunnable, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 容器为空时停止时间轮推进任务，新任务加入时重新启动
+     */
+    synchronized void stopTickerIfIdle(){
+        if(tickerFuture != null && exposedContainer.size() == 0){
+            tickerFuture.cancel(false);
+            tickerFuture = null;
+        }
+    }
+
+    /**
+     * 立即执行已到期任务
+     * <p>回调线程池拒绝时记录指标后抛出；周期任务按执行结束处理，固定延迟任务从拒绝时起重新计算执行时间，不会一直停留在执行中
+     * @param scheduledExecutorTask
+     */
+    public void executeTask(ScheduledExecutorTask scheduledExecutorTask){
+        Runnable runnable = attachMetrics(scheduledExecutorTask.getRunnable());
+        try {
+            laneFactory(scheduledExecutorTask.getLane()).execute(runnable);
+        } catch (RuntimeException ex) {
+            SchedulerMetrics metrics = this.metrics;
+            if(metrics != null){
+                metrics.addRejectedCallback();
+            }
+            if(runnable instanceof ScheduledMethodRunnable){
+                ((ScheduledMethodRunnable) runnable).completed();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * 设置单个任务的回调执行超时，覆盖setCallbackTimeout的默认超时
+     * @param handle schedule返回的句柄
+     * @param timeout 超时(ms)，0表示使用默认超时
+     * @return 任务已到期、被删除或被替换时返回false
+     */
+    public boolean setTimeout(TaskHandle handle, long timeout){
+        if(exposedContainer == null || handle == null){
+            return false;
+        }
+        require(TaskQueue.Feature.HANDLES);
+        if(timeout > 0L){
+            timeoutWheel();
+        }
+        return exposedContainer.setTimeout(handle, timeout);
+    }
+
+    /**
+     * 设置默认的回调执行超时(ms)，默认为0即不限制
+     * <p>所有回调共用一个超时检测线程，按10ms刻度检测，超时后按setTimeoutPolicy处理，
+     * 超时次数记录在SchedulerMetrics中，TimeoutException交给setErrorHandler设置的异常处理
+     */
+    public void setCallbackTimeout(long callbackTimeout) {
+        this.callbackTimeout = callbackTimeout;
+        TimeoutWheel wheel = callbackTimeout > 0L ? timeoutWheel() : timeoutWheel;
+        if(wheel != null){
+            wheel.setDefaultTimeout(callbackTimeout);
+        }
+    }
+
+    public long getCallbackTimeout() {
+        return callbackTimeout;
+    }
+
+    /**
+     * 设置回调执行超时后的处理方式，默认中断执行线程
+     */
+    public void setTimeoutPolicy(TimeoutPolicy timeoutPolicy) {
+        if(timeoutPolicy == null){ throw new NullPointerException();}
+        this.timeoutPolicy = timeoutPolicy;
+        TimeoutWheel wheel = timeoutWheel;
+        if(wheel != null){
+            wheel.setPolicy(timeoutPolicy);
+        }
+    }
+
+    public TimeoutPolicy getTimeoutPolicy() {
+        return timeoutPolicy;
+    }
+
+    private synchronized TimeoutWheel timeoutWheel(){
+        if(timeoutWheel == null){
+            TimeoutWheel wheel = new TimeoutWheel(10L);
+            wheel.setDefaultTimeout(callbackTimeout);
+            wheel.setPolicy(timeoutPolicy);
+            wheel.start();
+            timeoutWheel = wheel;
+        }
+        return timeoutWheel;
+    }
+
+    /**
+     * 设置定时器宽限(ms)，默认为0即按毫秒精确唤醒
+     * <p>大于1时添加任务的执行时间向后取整到宽限的整数倍，最多推迟宽限减1毫秒，
+     * 同一区间内的任务执行时间相同：批量派发与派发线程一次唤醒取出整个区间，按头任务注册时连续提交。
+     * 周期任务只对第一次执行时间取整
+     */
+    public void setTimerSlack(long timerSlack) {
+        this.timerSlack = timerSlack;
+    }
+
+    public long getTimerSlack() {
+        return timerSlack;
+    }
+
+    /**
+     * 按通道设置定时器宽限(ms)，key为通道名称，没有配置的通道使用setTimerSlack的值
+     */
+    public void setLaneSlack(Map<String, Long> laneSlack) {
+        this.laneSlack = laneSlack != null ? Collections.unmodifiableMap(new HashMap<>(laneSlack)) : Collections.emptyMap();
+    }
+
+    /**
+     * 按宽限将执行时间向后取整
+     * @param time 执行时间
+     * @param lane 通道名称，为null时使用全局宽限
+     * @return 取整后的执行时间，已对齐或不需要取整时返回原对象
+     */
+    private Date coalesce(Date time, String lane){
+        long slack = timerSlack;
+        if(lane != null){
+            Long configured = laneSlack.get(lane);
+            if(configured != null){
+                slack = configured;
+            }
+        }
+        if(slack <= 1L || time == null){
+            return time;
+        }
+        long deadline = time.getTime();
+        long remainder = Math.floorMod(deadline, slack);
+        if(remainder == 0L){
+            return time;
+        }
+        long rounded = deadline - remainder + slack;
+        return rounded > deadline ? new Date(rounded) : time;
+    }
+
+    private Collection<? extends TaskDefinition> coalesce(Collection<? extends TaskDefinition> tasks){
+        if(timerSlack <= 1L){
+            return tasks;
+        }
+        List<TaskDefinition> rounded = new ArrayList<>(tasks.size());
+        for(TaskDefinition task : tasks){
+            Date time = coalesce(task.getTime(), null);
+            rounded.add(time == task.getTime() ? task :
+                    new TaskDefinition(time, task.getMethod(), task.getClazz(), task.getArgs()));
+        }
+        return rounded;
+    }
+
+    /**
+     * 设置回调通道，key为通道名称，value为该通道执行回调使用的线程池工厂
+     * <p>每个通道的线程池大小、虚拟线程等按各自的工厂配置，通道之间互不占用线程，
+     * 大量低优先级任务不会推迟其他通道的回调。唤醒与派发仍由默认的线程池负责
+     */
+    public void setLanes(Map<String, ScheduledExecutorFactory> lanes) {
+        if(lanes != null && !lanes.isEmpty()){
+            require(TaskQueue.Feature.PRIORITY_LANES);
+        }
+        this.lanes = lanes != null ? Collections.unmodifiableMap(new HashMap<>(lanes)) : Collections.emptyMap();
+    }
+
+    public Map<String, ScheduledExecutorFactory> getLanes() {
+        return lanes;
+    }
+
+    /**
+     * 容器不支持可选操作时在修改容器之前拒绝
+     */
+    private void require(TaskQueue.Feature feature){
+        if(exposedContainer != null && !exposedContainer.supports(feature)){
+            throw new UnsupportedOperationException(exposedContainer.getClass().getSimpleName() + "不支持" + feature);
+        }
+    }
+
+    /**
+     * 按通道名称找到执行回调的线程池工厂
+     * @param lane 通道名称，为null时返回默认工厂
+     */
+    private ScheduledExecutorFactory laneFactory(String lane){
+        if(lane == null){
+            return scheduledExecutorFactory;
+        }
+        ScheduledExecutorFactory factory = lanes.get(lane);
+        if(factory == null){
+            throw new IllegalArgumentException("未配置的回调通道: " + lane);
+        }
+        return factory;
+    }
+
+    /**
+     * 为回调设置调度指标、超时检测与异常处理
+     */
+    private Runnable attachMetrics(Runnable runnable){
+        if(runnable instanceof ScheduledMethodRunnable){
+            ScheduledMethodRunnable methodRunnable = (ScheduledMethodRunnable) runnable;
+            SchedulerMetrics metrics = this.metrics;
+            if(metrics != null){
+                methodRunnable.setMetrics(metrics);
+            }
+            methodRunnable.setTimeouts(timeoutWheel);
+            methodRunnable.setErrorHandler(errorHandler);
+        }
+        return runnable;
+    }
+
+    /**
+     * 设置是否批量派发，默认是"false"，即每个头任务单独注册回调与唤醒
+     * <p>为"true"时只注册一个唤醒任务，唤醒后一次取出所有到期任务批量提交，再按下一个头任务注册唤醒
+     */
+    public void setBatchDispatch(boolean batchDispatch) {
+        this.batchDispatch = batchDispatch;
+    }
+
+    public boolean isBatchDispatch() {
+        return this.batchDispatch || this.bufferedInsert;
+    }
+
+    /**
+     * 设置是否由生产者无锁提交任务，默认是"false"
+     * <p>为"true"时addTask只将任务写入容器的无锁队列，仅在任务早于已注册的唤醒时注册新的唤醒，
+     * 由唤醒后的派发线程合并进堆，派发方式同批量派发
+     */
+    public void setBufferedInsert(boolean bufferedInsert) {
+        this.bufferedInsert = bufferedInsert;
+    }
+
+    public boolean isBufferedInsert() {
+        return this.bufferedInsert;
+    }
+
+    /**
+     * 设置是否由单个挂起的派发线程派发，默认是"false"
+     * <p>为"true"时派发线程挂起到头任务的执行时间，到期后取出所有到期任务提交给回调线程池；
+     * 新任务早于挂起时间时只唤醒派发线程，头任务变化不会取消已注册的任务。
+     * 与bufferedInsert同时开启时由生产者无锁提交。按刻度推进的容器不使用派发线程
+     */
+    public void setParkedDispatch(boolean parkedDispatch) {
+        this.parkedDispatch = parkedDispatch;
+    }
+
+    public boolean isParkedDispatch() {
+        return this.parkedDispatch;
+    }
+
+    /**
+     * 按头任务注册时持有headLock
+     * @return 是否按头任务注册，是则调用方需调用unlockHead
+     */
+    private boolean lockHead(){
+        if(exposedContainer.getTickDuration() > 0 || isParkedDispatch() || isBatchDispatch()){
+            return false;
+        }
+        headLock.lock();
+        return true;
+    }
+
+    private void unlockHead(boolean locked){
+        if(locked){
+            headLock.unlock();
+        }
+    }
+
+    /**
+     * 取消已注册的回调与唤醒，为当前头任务重新注册，调用方持有headLock
+     */
+    private void reregisterHead(){
+        stopTask();
+        if(exposedContainer.size() > 0){
             registerHeadTask();
-        } else{
-            exposedContainer.put(time,method,clazz,args);
+        }
+    }
+
+    /**
+     * 头任务的唤醒到期后删除已执行的头任务，为新的头任务注册
+     * <p>等待headLock期间头任务被替换时，唤醒已被stopTask取消并中断，直接返回
+     */
+    void advanceHead(){
+        headLock.lock();
+        try {
+            if(Thread.interrupted()){
+                return;
+            }
+            if(exposedContainer.size() > 0){
+                destroyHeadTask();
+            }
+            if(exposedContainer.size() > 0){
+                registerTask(exposedContainer.getHeadTask());
+            }
+        } finally {
+            headLock.unlock();
         }
     }
 
@@ -90,7 +797,35 @@ public class TaskScheduling {
      */
     public void registerHeadTask(){
         ScheduledExecutorTask scheduledExecutorTask = exposedContainer.getHeadTask();
-        registerTask(scheduledExecutorTask);
+        if(isBatchDispatch()){
+            armWakeup(System.currentTimeMillis() + scheduledExecutorTask.getDelay());
+        }else{
+            registerTask(scheduledExecutorTask);
+        }
+    }
+
+    /**
+     * 仅当deadline早于已注册的唤醒时注册新的唤醒
+     * @param deadline 执行时间(ms)
+     */
+    private void armWakeup(long deadline){
+        long armed;
+        while(deadline < (armed = armedDeadline.get())){
+            if(armedDeadline.compareAndSet(armed, deadline)){
+                long delay = deadline - System.currentTimeMillis();
+                registerWakeup(delay > 0L ? delay : 0L);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 注册唤醒任务，批量派发时唤醒后取出所有到期任务
+     * @param delay 延期时间(ms)
+     */
+    public void registerWakeup(long delay){
+        ScheduledExecutorService scheduledExecutorService = scheduledExecutorFactory.getObject();
+        addFuture(scheduledExecutorService.schedule(schedulingRunnable, delay, TimeUnit.MILLISECONDS));
     }
 
     /**
@@ -98,11 +833,51 @@ public class TaskScheduling {
      * @param scheduledExecutorTask
      */
     public void registerTask(ScheduledExecutorTask scheduledExecutorTask){
+        attachMetrics(scheduledExecutorTask.getRunnable());
         ScheduledExecutorService scheduledExecutorService = scheduledExecutorFactory.getObject();
-        ScheduledFuture scheduledTaskFuture = scheduledExecutorFactory.registerTask(scheduledExecutorTask,scheduledExecutorService);
-        ScheduledFuture taskSchedulingFuture = scheduledExecutorService.schedule(new TaskSchedulingRunnable(),scheduledExecutorTask.getDelay(),scheduledExecutorTask.getTimeUnit());
-        futureList.add(scheduledTaskFuture);
-        futureList.add(taskSchedulingFuture);
+        ScheduledExecutorFactory laneFactory = laneFactory(scheduledExecutorTask.getLane());
+        ScheduledFuture<?> scheduledTaskFuture = laneFactory.registerTask(scheduledExecutorTask,laneFactory.getObject());
+        ScheduledFuture<?> taskSchedulingFuture = scheduledExecutorService.schedule(schedulingRunnable,scheduledExecutorTask.getDelay(),scheduledExecutorTask.getTimeUnit());
+        synchronized (futureList) {
+            futureList.add(scheduledTaskFuture);
+            futureList.add(taskSchedulingFuture);
+        }
+    }
+
+    private void addFuture(ScheduledFuture<?> future){
+        synchronized (futureList) {
+            futureList.add(future);
+        }
+    }
+
+    /**
+     * 取消所有已注册的回调与唤醒并清空
+     * @param mayInterruptIfRunning 是否中断正在执行的任务
+     * @return 取消的数量
+     */
+    private int cancelFutures(boolean mayInterruptIfRunning){
+        int cancelled = 0;
+        synchronized (futureList) {
+            for(int i = 0, n = futureList.size(); i < n; ++i){
+                if(futureList.get(i).cancel(mayInterruptIfRunning)){
+                    ++cancelled;
+                }
+            }
+            futureList.clear();
+        }
+        return cancelled;
+    }
+
+    /**
+     * 重新注册唯一的唤醒任务，其余尚未执行的唤醒直接取消，不中断正在执行的任务
+     */
+    public void rearmWakeup(){
+        cancelFutures(false);
+        armedDeadline.set(Long.MAX_VALUE);
+
+        if(exposedContainer.size() > 0){
+            registerHeadTask();
+        }
     }
 
     /**
@@ -120,18 +895,20 @@ public class TaskScheduling {
      * 停止提交任务
      */
     public void stopTask(){
-        for(ScheduledFuture future : futureList){
-            future.cancel(true);
+        int cancelled = cancelFutures(true);
+        SchedulerMetrics metrics = this.metrics;
+        if(metrics != null){
+            metrics.addCancelledFutures(cancelled);
         }
 
-        cleanFuture();
+        armedDeadline.set(Long.MAX_VALUE);
     }
 
     /**
      * 清空发布任务
      */
     public void cleanFuture(){
-        if(futureList != null && futureList.size() > 0){
+        synchronized (futureList) {
             futureList.clear();
         }
     }
@@ -141,7 +918,7 @@ public class TaskScheduling {
         scheduledExecutorFactory = scheduledExecutorServiceFactory;
     }*/
 
-    public TaskContainer getObject(){
+    public TaskQueue getObject(){
         return exposedContainer;
     }
 }
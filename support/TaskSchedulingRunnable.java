@@ -1,13 +1,41 @@
 package com.sumavision.launcher.task.support;
 
-import com.sumavision.launcher.listener.ScheduledExecutorTaskListener;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author cq
  */
 public class TaskSchedulingRunnable implements Runnable{
-    private TaskScheduling taskScheduling = ScheduledExecutorTaskListener.getTaskScheduling();
-    private TaskContainer taskContainer = taskScheduling.getObject();
+    /**应用启动完成后持有TaskScheduling的监听器*/
+    private static final String LISTENER_CLASS = "com.sumavision.launcher.listener.ScheduledExecutorTaskListener";
+    private TaskScheduling taskScheduling;
+    private TaskQueue taskContainer;
+    private final List<ScheduledExecutorTask> expiredTasks = new ArrayList<>();
+
+    public TaskSchedulingRunnable() {
+        this(listenerTaskScheduling());
+    }
+
+    /**
+     * @param taskScheduling 所属调度，应用启动完成之前注册唤醒时使用
+     */
+    public TaskSchedulingRunnable(TaskScheduling taskScheduling) {
+        this.taskScheduling = taskScheduling;
+        this.taskContainer = taskScheduling.getObject();
+    }
+
+    /**
+     * 通过反射读取应用监听器持有的TaskScheduling，调度模块单独编译时不依赖应用
+     */
+    private static TaskScheduling listenerTaskScheduling() {
+        try {
+            return (TaskScheduling) Class.forName(LISTENER_CLASS, true, TaskSchedulingRunnable.class.getClassLoader())
+                    .getMethod("getTaskScheduling").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("无法从" + LISTENER_CLASS + "获取TaskScheduling", ex);
+        }
+    }
 
     @Override
     public void run() {
@@ -15,13 +43,81 @@ public class TaskSchedulingRunnable implements Runnable{
             return;
         }
 
-        if(taskContainer.size() > 0){
-            taskScheduling.destroyHeadTask();
+        SchedulerMetrics metrics = taskScheduling.getMetrics();
+        if(metrics != null){
+            metrics.recordQueueDepth(taskContainer.size());
+        }
+
+        if(taskContainer.getTickDuration() > 0){
+            drainTick();
+            return;
+        }
+
+        if(taskScheduling.isBatchDispatch()){
+            drainBatch();
+            return;
         }
 
-        if(taskContainer.size() > 0){
-            ScheduledExecutorTask scheduledExecutorTask = taskContainer.getHeadTask();
-            taskScheduling.registerTask(scheduledExecutorTask);
+        taskScheduling.advanceHead();
+    }
+
+    /**
+     * 推进时间轮到当前刻度，提交所有到期任务
+     * <p>推进任务按固定频率执行，抛出异常后线程池不再执行，提交失败只报告不抛出
+     */
+    private void drainTick(){
+        try {
+            executeExpired();
+        } catch (RuntimeException ex) {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+        } finally {
+            taskScheduling.stopTickerIfIdle();
+        }
+    }
+
+    /**
+     * 一次取出所有到期任务批量提交，再按新的头任务注册唤醒
+     * <p>唤醒是一次性定时任务，抛出的异常只会留在Future中，提交失败直接报告
+     */
+    private void drainBatch(){
+        try {
+            executeExpired();
+        } catch (RuntimeException ex) {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+        } finally {
+            //提交失败时也要按新的头任务注册唤醒，否则之后的唤醒都被旧的注册时间挡住
+            taskScheduling.rearmWakeup();
+        }
+    }
+
+    /**
+     * 同一个实例被所有唤醒共用，到期任务列表按实例复用，并发唤醒依次取出；
+     * 单个任务提交失败不影响同一批的其他任务，全部提交后抛出第一个异常
+     */
+    private void executeExpired(){
+        RuntimeException failure = null;
+        synchronized (expiredTasks) {
+            taskContainer.drainExpired(System.currentTimeMillis(), expiredTasks);
+            try {
+                for(int i = 0, n = expiredTasks.size(); i < n; ++i){
+                    try {
+                        taskScheduling.executeTask(expiredTasks.get(i));
+                    } catch (RuntimeException ex) {
+                        if(failure == null){
+                            failure = ex;
+                        }else{
+                            failure.addSuppressed(ex);
+                        }
+                    }
+                }
+            } finally {
+                expiredTasks.clear();
+            }
+        }
+        if(failure != null){
+            throw failure;
         }
     }
 
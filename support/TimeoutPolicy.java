@@ -0,0 +1,12 @@
+package com.sumavision.launcher.task.support;
+
+/**
+ * <p>功能描述：回调执行超时后的处理方式<p/>
+ * @author chen qi
+ */
+public enum TimeoutPolicy {
+    /**中断执行回调的线程，异步回调取消返回的CompletableFuture，回调响应中断后线程归还线程池*/
+    INTERRUPT,
+    /**不中断，调度不再等待该回调：固定延迟任务立即计算下一次执行时间，回调结束后的结果被忽略，线程直到回调结束才归还*/
+    ABANDON
+}
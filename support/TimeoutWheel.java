@@ -0,0 +1,324 @@
+package com.sumavision.launcher.task.support;
+
+import com.sumavision.launcher.task.util.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>功能描述：回调执行超时检测，所有回调共用一个单层哈希时间轮与一个守护线程<p/>
+ * <p>回调开始时放入超时刻度对应的槽，结束时取出，均为O(1)，不为每次执行注册定时任务；
+ * 执行记录缓存在回调上重复使用，同一回调并发执行或被放弃后仍在执行时才另行创建。
+ * 超时按刻度检测，最多晚一个刻度；没有执行中的回调时线程挂起<p/>
+ * @author chen qi
+ */
+final class TimeoutWheel {
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    static final int IDLE = 0;
+    static final int RUNNING = 1;
+    static final int EXPIRING = 2;
+    static final int EXPIRED = 3;
+
+    private final long tickDuration;
+    /**槽内为双向链表*/
+    private final Execution[] buckets = new Execution[WHEEL_SIZE];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final List<Execution> expired = new ArrayList<>();
+    /**下一个待处理的刻度*/
+    private long currentTick;
+    private int size;
+    /**默认超时(ms)，0为不限制*/
+    private volatile long defaultTimeout;
+    private volatile TimeoutPolicy policy = TimeoutPolicy.INTERRUPT;
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param tickDuration 刻度(ms)
+     */
+    TimeoutWheel(long tickDuration) {
+        if(tickDuration < 1){
+            throw new IllegalArgumentException();
+        }
+        this.tickDuration = tickDuration;
+    }
+
+    synchronized void start() {
+        if(thread != null){
+            return;
+        }
+        running = true;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("TaskTimeout-");
+        threadFactory.setDaemon(true);
+        thread = threadFactory.newThread(this::run);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        Thread current = thread;
+        if(current == null){
+            return;
+        }
+        running = false;
+        current.interrupt();
+        try {
+            current.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    long getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    void setDefaultTimeout(long defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    TimeoutPolicy getPolicy() {
+        return policy;
+    }
+
+    void setPolicy(TimeoutPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * 回调开始执行，由执行线程调用
+     * @param runnable 回调
+     * @param timeout 超时(ms)
+     * @return 执行记录
+     */
+    Execution arm(ScheduledMethodRunnable runnable, long timeout) {
+        long deadlineTick = (System.currentTimeMillis() + timeout + tickDuration - 1) / tickDuration;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Execution e = runnable.execution;
+            if(e == null || e.state != IDLE){
+                e = new Execution(runnable);
+                if(runnable.execution == null){
+                    runnable.execution = e;
+                }
+            }
+            e.state = RUNNING;
+            e.thread = Thread.currentThread();
+            e.policy = policy;
+            if(size == 0){
+                //空轮直接跳到当前刻度，不逐个刻度追赶
+                currentTick = System.currentTimeMillis() / tickDuration;
+            }
+            if(deadlineTick < currentTick){
+                deadlineTick = currentTick;
+            }
+            e.rounds = (deadlineTick - currentTick) / WHEEL_SIZE;
+            link(e, (int) (deadlineTick & WHEEL_MASK));
+            if(++size == 1){
+                notEmpty.signal();
+            }
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 回调同步部分返回了CompletionStage，之后超时取消该CompletionStage而不再中断线程
+     * @param e 执行记录
+     * @param stage 回调返回值
+     * @return 是否尚未超时
+     */
+    boolean attach(Execution e, CompletionStage<?> stage) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if(e.state == RUNNING){
+                e.stage = stage;
+                e.thread = null;
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitExpired(e);
+        //同步部分执行期间超时，中断标志不能留给线程池的下一个回调
+        Thread.interrupted();
+        if(e.policy == TimeoutPolicy.INTERRUPT){
+            cancel(stage);
+        }
+        return false;
+    }
+
+    /**
+     * 回调执行结束
+     * @param e 执行记录
+     * @param sync 是否在执行线程中调用
+     * @return 是否在超时前结束
+     */
+    boolean finish(Execution e, boolean sync) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if(e.state == RUNNING){
+                unlink(e);
+                --size;
+                e.release();
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitExpired(e);
+        if(sync){
+            Thread.interrupted();
+        }
+        e.release();
+        return false;
+    }
+
+    /**
+     * 等待超时处理完成，超时线程此时可能正在中断执行线程
+     */
+    private static void awaitExpired(Execution e) {
+        while(e.state == EXPIRING){
+            Thread.onSpinWait();
+        }
+    }
+
+    private void run() {
+        while(running){
+            try {
+                advance();
+            } catch (InterruptedException ex) {
+                //stop
+            }
+            for(int i = 0, n = expired.size(); i < n; ++i){
+                expire(expired.get(i));
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * 等待到下一个刻度，取出到期的执行记录放入expired并标记为EXPIRING
+     */
+    private void advance() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while(size == 0){
+                notEmpty.await();
+            }
+            long wait = (currentTick + 1) * tickDuration - System.currentTimeMillis();
+            if(wait > 0){
+                notEmpty.await(wait, TimeUnit.MILLISECONDS);
+                if(size == 0){
+                    return;
+                }
+            }
+            long end = System.currentTimeMillis() / tickDuration + 1;
+            //落后超过一圈时每个槽只处理一次，剩余圈数按该槽经过的次数一次扣除
+            for(long tick = currentTick, last = Math.min(end, currentTick + WHEEL_SIZE); tick < last; ++tick){
+                long visits = (end - 1 - tick) / WHEEL_SIZE + 1;
+                Execution e = buckets[(int) (tick & WHEEL_MASK)];
+                while(e != null){
+                    Execution next = e.next;
+                    if(e.rounds >= visits){
+                        e.rounds -= visits;
+                    }else{
+                        unlink(e);
+                        --size;
+                        e.state = EXPIRING;
+                        expired.add(e);
+                    }
+                    e = next;
+                }
+            }
+            if(currentTick < end){
+                currentTick = end;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(Execution e) {
+        Thread thread = e.thread;
+        CompletionStage<?> stage = e.stage;
+        TimeoutPolicy policy = e.policy;
+        try {
+            if(policy == TimeoutPolicy.INTERRUPT && thread != null){
+                thread.interrupt();
+            }
+        } finally {
+            //取消CompletionStage可能在本线程中直接触发finish，需先结束EXPIRING
+            e.state = EXPIRED;
+        }
+        e.runnable.timedOut(stage, policy);
+    }
+
+    static void cancel(CompletionStage<?> stage) {
+        try {
+            stage.toCompletableFuture().cancel(true);
+        } catch (UnsupportedOperationException ex) {
+            //不支持转换的CompletionStage无法取消
+        }
+    }
+
+    private void link(Execution e, int slot) {
+        Execution head = buckets[slot];
+        e.slot = slot;
+        e.prev = null;
+        e.next = head;
+        if(head != null){
+            head.prev = e;
+        }
+        buckets[slot] = e;
+    }
+
+    private void unlink(Execution e) {
+        if(e.prev != null){
+            e.prev.next = e.next;
+        }else{
+            buckets[e.slot] = e.next;
+        }
+        if(e.next != null){
+            e.next.prev = e.prev;
+        }
+        e.prev = e.next = null;
+    }
+
+    /**
+     * 一次回调执行的超时记录
+     */
+    static final class Execution {
+        final ScheduledMethodRunnable runnable;
+        volatile int state;
+        /**同步部分执行中的线程，返回CompletionStage后为null*/
+        Thread thread;
+        CompletionStage<?> stage;
+        TimeoutPolicy policy;
+        long rounds;
+        int slot;
+        Execution prev, next;
+
+        Execution(ScheduledMethodRunnable runnable) {
+            this.runnable = runnable;
+        }
+
+        void release() {
+            thread = null;
+            stage = null;
+            state = IDLE;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.sumavision.launcher.task.support;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>功能描述：分层时间轮任务容器，插入与删除均为O(1)<p/>
+ * <p>每层64个槽，第n层一个槽覆盖64^n个刻度，任务按剩余刻度放入对应层，
+ * 低层转完一圈时将上一层当前槽的任务降级重新分配。
+ * 容器不维护有序的头任务，由TaskSchedulingRunnable按刻度调用drainExpired取出到期任务<p/>
+ * <p>不支持周期任务、任务句柄与优先级通道，只支持删除通知<p/>
+ * @author chen qi
+ */
+public class TimingWheelContainer implements TaskQueue {
+    /**默认刻度(ms)*/
+    private static final long DEFAULT_TICK_DURATION = 10L;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    /**层数，可覆盖2^36个刻度，超出部分暂存于最高层*/
+    private static final int LEVELS = 6;
+    private static final long MAX_SPAN = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickDuration;
+    /**第level层第i个槽位于buckets[level * WHEEL_SIZE + i]，槽内为双向链表*/
+    private final Entry[] buckets;
+    /**按回调方法与参数索引任务，相同任务通过sameNext串联，value为最近插入的任务*/
+    private final Map<Entry, Entry> index;
+    /**下一个待处理的刻度*/
+    private long currentTick;
+    private volatile int size;
+    /** 使用所有公共操作*/
+    private final ReentrantLock lock;
+    /**任务不经到期取出离开时间轮时通知*/
+    private volatile RemovalListener removalListener;
+
+    /**
+     * 初始化一个指定刻度的时间轮
+     * @param tickDuration 刻度(ms)
+     */
+    public TimingWheelContainer(long tickDuration) {
+        if (tickDuration < 1){
+            throw new IllegalArgumentException();
+        }
+        this.tickDuration = tickDuration;
+        this.buckets = new Entry[LEVELS * WHEEL_SIZE];
+        this.index = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.currentTick = System.currentTimeMillis() / tickDuration;
+    }
+
+    /**
+     * 初始化一个时间轮，默认刻度为10ms
+     */
+    public TimingWheelContainer(){
+        this(DEFAULT_TICK_DURATION);
+    }
+
+    @Override
+    public boolean put(Date time, Method method, Object clazz, Object[] args){
+        if (time == null || method == null || clazz == null){ throw new NullPointerException();}
+        Entry e = new Entry(time, method, clazz, args);
+        //向上取整，任务只会晚于执行时间最多一个刻度，不会提前
+        e.expireTick = (time.getTime() + tickDuration - 1) / tickDuration;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if(size == 0){
+                //空轮可以直接跳到当前刻度，避免长时间空闲后逐个刻度追赶
+                currentTick = Math.max(currentTick, System.currentTimeMillis() / tickDuration);
+            }
+            addEntry(e);
+            Entry same = index.put(e, e);
+            if(same != null){
+                e.sameNext = same;
+                same.samePrev = e;
+            }
+            ++size;
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeHead(){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Entry e = first();
+            if(e == null){
+                return false;
+            }
+            unlink(e);
+            unindex(e);
+            --size;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除节点
+     * @return 被删除任务所在槽位，没有找到返回-1
+     */
+    @Override
+    public int remove(Date time, Method method, Object clazz, Object[] args){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if(size == 0){
+                return -1;
+            }
+            Entry e = index.get(new Entry(time, method, clazz, args));
+            if(e == null){
+                return -1;
+            }
+            int bucket = e.bucket;
+            discard(e);
+            return bucket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeExact(long deadline, Method method, Object[] args){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if(size == 0){
+                return false;
+            }
+            for(Entry e = index.get(new Entry(null, method, null, args)); e != null; e = e.sameNext){
+                if(e.getTime().getTime() == deadline){
+                    discard(e);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean supports(Feature feature) {
+        return feature == Feature.REMOVAL_TRACKING;
+    }
+
+    @Override
+    public void setRemovalListener(RemovalListener listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * 通知后删除任务，用于到期取出以外的删除，调用方需持有锁
+     * @param e 任务
+     */
+    private void discard(Entry e){
+        RemovalListener listener = this.removalListener;
+        if(listener != null){
+            listener.removed(e.getTime().getTime(), e.getMethod(), e.getArgs());
+        }
+        unlink(e);
+        unindex(e);
+        --size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 与第一个任务比较时间，时间轮需要扫描各层槽位，开销为O(槽位数)
+     */
+    @Override
+    public int compareFirstTime(Date time){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Entry e = first();
+            if(e == null){
+                throw new IndexOutOfBoundsException();
+            }
+            return time.compareTo(e.getTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取头任务，时间轮需要扫描各层槽位，开销为O(槽位数)
+     */
+    @Override
+    public ScheduledExecutorTask getHeadTask(){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Entry e = first();
+            if(e == null){
+                throw new NullPointerException();
+            }
+            return createTask(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 推进时间轮到now所在刻度，取出沿途所有到期任务
+     * @param now 当前时间(ms)
+     * @param sink 接收到期任务
+     * @return 取出的任务数量
+     */
+    @Override
+    public int drainExpired(long now, Collection<? super ScheduledExecutorTask> sink){
+        long target = now / tickDuration;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        int count = 0;
+        try {
+            while(currentTick <= target){
+                if(size == 0){
+                    //空轮直接跳过剩余刻度
+                    currentTick = target + 1;
+                    break;
+                }
+                int slot = (int)(currentTick & WHEEL_MASK);
+                //低层转完一圈，逐层降级上一层当前槽
+                int cascaded = slot;
+                for(int level = 1; cascaded == 0 && level < LEVELS; ++level){
+                    cascaded = (int)((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                    cascade(level * WHEEL_SIZE + cascaded);
+                }
+
+                Entry e = buckets[slot];
+                buckets[slot] = null;
+                while(e != null){
+                    Entry next = e.next;
+                    e.prev = e.next = null;
+                    if(e.expireTick <= currentTick){
+                        e.bucket = -1;
+                        unindex(e);
+                        --size;
+                        sink.add(createTask(e));
+                        ++count;
+                    }else{
+                        addEntry(e);
+                    }
+                    e = next;
+                }
+                ++currentTick;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<TaskDefinition> snapshot(){
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            List<TaskDefinition> tasks = new ArrayList<>(size);
+            for(Entry head : buckets){
+                for(Entry e = head; e != null; e = e.next){
+                    tasks.add(new TaskDefinition(e.getTime(), e.getMethod(), e.getClazz(), e.getArgs()));
+                }
+            }
+            return tasks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * 按剩余刻度将任务放入对应层的槽
+     * @param e 任务
+     */
+    private void addEntry(Entry e){
+        long expires = e.expireTick;
+        long idx = expires - currentTick;
+        int slot;
+        if(idx < 0){
+            //已经到期，放入当前槽，下一次推进时取出
+            slot = (int)(currentTick & WHEEL_MASK);
+        }else{
+            if(idx > MAX_SPAN){
+                expires = currentTick + MAX_SPAN;
+                idx = MAX_SPAN;
+            }
+            int level = 0;
+            while(level < LEVELS - 1 && idx >= (1L << (WHEEL_BITS * (level + 1)))){
+                ++level;
+            }
+            slot = level * WHEEL_SIZE + (int)((expires >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        }
+        link(slot, e);
+    }
+
+    /**
+     * 将槽内任务按剩余刻度重新分配到低层
+     * @param slot 槽位
+     */
+    private void cascade(int slot){
+        Entry e = buckets[slot];
+        buckets[slot] = null;
+        while(e != null){
+            Entry next = e.next;
+            e.prev = e.next = null;
+            addEntry(e);
+            e = next;
+        }
+    }
+
+    /**
+     * 查找执行时间最早的任务，每层从当前槽之后找到第一个非空槽，取各层最小值
+     * @return 没有任务返回null
+     */
+    private Entry first(){
+        if(size == 0){
+            return null;
+        }
+        Entry min = null;
+        for(int level = 0; level < LEVELS; ++level){
+            int base = level * WHEEL_SIZE;
+            int start = (int)((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            //高层的当前槽若已降级，其中的任务属于下一圈，最后扫描
+            if(level > 0 && (currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0){
+                ++start;
+            }
+            for(int i = 0; i < WHEEL_SIZE; ++i){
+                Entry e = buckets[base + ((start + i) & WHEEL_MASK)];
+                if(e == null){
+                    continue;
+                }
+                for(; e != null; e = e.next){
+                    if(min == null || e.getTime().compareTo(min.getTime()) < 0){
+                        min = e;
+                    }
+                }
+                break;
+            }
+        }
+        return min;
+    }
+
+    private ScheduledExecutorTask createTask(Entry e){
+        long delayTime = e.getTime().getTime() - System.currentTimeMillis();
+        ScheduledMethodRunnable runnable = (ScheduledMethodRunnable) e.getRunnable();
+        if(runnable == null){
+            e.setRunnable(new ScheduledMethodRunnable(e.getMethod(), e.getClazz(), e.getArgs(), e.getTime().getTime()));
+        }else{
+            runnable.setTime(e.getTime().getTime());
+        }
+        e.setDelay(delayTime > 0L ? delayTime : 0L);
+        return e;
+    }
+
+    private void link(int slot, Entry e){
+        Entry head = buckets[slot];
+        e.bucket = slot;
+        e.prev = null;
+        e.next = head;
+        if(head != null){
+            head.prev = e;
+        }
+        buckets[slot] = e;
+    }
+
+    private void unlink(Entry e){
+        if(e.prev != null){
+            e.prev.next = e.next;
+        }else if(e.bucket >= 0){
+            buckets[e.bucket] = e.next;
+        }
+        if(e.next != null){
+            e.next.prev = e.prev;
+        }
+        e.prev = e.next = null;
+        e.bucket = -1;
+    }
+
+    /**
+     * 从索引中移除任务
+     * @param e 任务
+     */
+    private void unindex(Entry e){
+        Entry prev = e.samePrev, next = e.sameNext;
+        if(prev != null){
+            prev.sameNext = next;
+        }else if(next != null){
+            index.remove(e);
+            index.put(next, next);
+        }else{
+            index.remove(e);
+        }
+        if(next != null){
+            next.samePrev = prev;
+        }
+        e.samePrev = e.sameNext = null;
+    }
+
+    static class Entry extends ScheduledExecutorTask{
+        final Date time;
+        final Method method;
+        final Object clazz;
+        final Object[] args;
+        long expireTick;
+        int bucket = -1;
+        Entry prev, next;
+        Entry samePrev, sameNext;
+
+        Entry(Date time,Method method,Object clazz,Object[] args){
+            this.time = time;
+            this.method = method;
+            this.clazz = clazz;
+            this.args = args;
+        }
+
+        public final Date getTime() {
+            return time;
+        }
+
+        public final Method getMethod() {
+            return method;
+        }
+
+        public final Object getClazz() {
+            return clazz;
+        }
+
+        public final Object[] getArgs() {
+            return args;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Entry entry = (Entry) o;
+
+            if (!method.equals(entry.method)) {
+                return false;
+            }
+
+            return Arrays.equals(args, entry.args);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = method.hashCode();
+            result = 31 * result + Arrays.hashCode(args);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.sumavision.launcher.task.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * <p>功能描述：ScheduledMethodRunnable编译后的调用与Method.invoke的行为一致<p/>
+ * @author chen qi
+ */
+class ScheduledMethodRunnableTest {
+
+    private final List<Object> calls = new ArrayList<>();
+
+    private static final List<Object> STATIC_CALLS = new ArrayList<>();
+
+    public void none() {
+        calls.add("none");
+    }
+
+    public void single(Integer key) {
+        calls.add(key);
+    }
+
+    public void widened(long value) {
+        calls.add(value);
+    }
+
+    public void varargs(String... keys) {
+        calls.add(keys.length);
+    }
+
+    public static void staticSingle(Integer key) {
+        STATIC_CALLS.add(key);
+    }
+
+    public void castInside(Object value) {
+        calls.add((String) value);
+    }
+
+    public void checked() throws IOException {
+        throw new IOException("checked");
+    }
+
+    private void hidden(Integer key) {
+        calls.add(key);
+    }
+
+    private static Method method(String name, Class<?>... types) throws NoSuchMethodException {
+        return ScheduledMethodRunnableTest.class.getDeclaredMethod(name, types);
+    }
+
+    private void run(Method method, Object target, Object[] args) {
+        new ScheduledMethodRunnable(method, target, args).run();
+    }
+
+    @Test
+    void nullArgsForMethodWithoutParameters() throws Exception {
+        run(method("none"), this, null);
+        assertEquals(List.of("none"), calls);
+    }
+
+    @Test
+    void nullArgsForMethodWithParameters() {
+        assertThrows(IllegalArgumentException.class, () -> run(method("single", Integer.class), this, null));
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    void wrongArgumentCount() {
+        assertThrows(IllegalArgumentException.class,
+                () -> run(method("single", Integer.class), this, new Object[]{1, 2}));
+    }
+
+    @Test
+    void wrongArgumentType() {
+        assertThrows(IllegalArgumentException.class,
+                () -> run(method("single", Integer.class), this, new Object[]{"1"}));
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    void nullForPrimitiveParameter() {
+        assertThrows(IllegalArgumentException.class,
+                () -> run(method("widened", long.class), this, new Object[]{null}));
+    }
+
+    @Test
+    void primitiveWidening() throws Exception {
+        run(method("widened", long.class), this, new Object[]{7});
+        assertEquals(List.of(7L), calls);
+    }
+
+    @Test
+    void targetOfWrongType() {
+        assertThrows(IllegalArgumentException.class,
+                () -> run(method("single", Integer.class), "target", new Object[]{1}));
+    }
+
+    @Test
+    void nullTargetForInstanceMethod() {
+        assertThrows(NullPointerException.class, () -> run(method("single", Integer.class), null, new Object[]{1}));
+    }
+
+    @Test
+    void varargsTakeArray() throws Exception {
+        run(method("varargs", String[].class), this, new Object[]{new String[]{"a", "b"}});
+        run(method("varargs", String[].class), this, new Object[]{new String[0]});
+        assertEquals(List.of(2, 0), calls);
+    }
+
+    @Test
+    void varargsRejectElements() {
+        assertThrows(IllegalArgumentException.class,
+                () -> run(method("varargs", String[].class), this, new Object[]{"a", "b"}));
+    }
+
+    @Test
+    void staticMethodIgnoresTarget() throws Exception {
+        STATIC_CALLS.clear();
+        run(method("staticSingle", Integer.class), null, new Object[]{1});
+        run(method("staticSingle", Integer.class), "ignored", new Object[]{2});
+        assertEquals(List.of(1, 2), STATIC_CALLS);
+    }
+
+    @Test
+    void exceptionsFromCallbackPropagateUnchanged() {
+        assertThrows(ClassCastException.class, () -> run(method("castInside", Object.class), this, new Object[]{1}));
+    }
+
+    @Test
+    void checkedExceptionIsWrapped() {
+        UndeclaredThrowableException ex = assertThrows(UndeclaredThrowableException.class,
+                () -> run(method("checked"), this, new Object[0]));
+        assertTrue(ex.getUndeclaredThrowable() instanceof IOException);
+    }
+
+    @Test
+    void inaccessibleMethodFallsBackToReflection() throws Exception {
+        UndeclaredThrowableException ex = assertThrows(UndeclaredThrowableException.class,
+                () -> run(method("hidden", Integer.class), this, new Object[]{3}));
+        assertTrue(ex.getUndeclaredThrowable() instanceof IllegalAccessException);
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    void accessibleFlagIsNotShared() throws Exception {
+        Method hidden = method("hidden", Integer.class);
+        hidden.setAccessible(true);
+        run(hidden, this, new Object[]{3});
+        assertThrows(IllegalArgumentException.class, () -> run(hidden, this, new Object[]{"3"}));
+        assertThrows(UndeclaredThrowableException.class, () -> run(method("hidden", Integer.class), this, new Object[]{4}));
+        assertEquals(List.of(3), calls);
+    }
+}
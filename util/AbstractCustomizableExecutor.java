@@ -79,23 +79,27 @@ public abstract class AbstractCustomizableExecutor extends CustomizableThreadFac
     protected abstract ExecutorService initializeExecutor(
             ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler);
 
-    private void shutdown() {
+    /**
+     * 按配置的停止策略关闭线程池
+     * @param executor 线程池
+     */
+    protected void shutdown(ExecutorService executor) {
         if (this.waitForTasksToCompleteOnShutdown) {
-            this.executor.shutdown();
+            executor.shutdown();
         }
         else {
-            this.executor.shutdownNow();
+            executor.shutdownNow();
         }
-        awaitTerminationIfNecessary();
+        awaitTerminationIfNecessary(executor);
     }
 
     /**
      * 等待一定时间后关闭线程池
      */
-    private void awaitTerminationIfNecessary() {
+    private void awaitTerminationIfNecessary(ExecutorService executor) {
         if (this.awaitTerminationSeconds > 0) {
             try {
-                this.executor.awaitTermination(this.awaitTerminationSeconds, TimeUnit.SECONDS);
+                executor.awaitTermination(this.awaitTerminationSeconds, TimeUnit.SECONDS);
             }
             catch (InterruptedException ex) {
                 Thread.currentThread().interrupt();
@@ -105,7 +109,7 @@ public abstract class AbstractCustomizableExecutor extends CustomizableThreadFac
 
     @Override
     public void destroy() {
-        shutdown();
+        shutdown(this.executor);
     }
 
     @Override
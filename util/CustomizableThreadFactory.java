@@ -1,5 +1,7 @@
 package com.sumavision.launcher.task.util;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -23,4 +25,21 @@ public class CustomizableThreadFactory extends CustomizableThread implements Thr
         return thread;
     }
 
+    /**
+     * 创建每个任务一个虚拟线程的执行器，线程名称使用相同前缀
+     * <p>通过反射调用JDK 21的Thread.ofVirtual，运行环境不支持时抛出IllegalStateException
+     */
+    public ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, getThreadNamePrefix(), 1L);
+            ThreadFactory threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("虚拟线程需要JDK 21及以上版本", ex);
+        }
+    }
+
 }
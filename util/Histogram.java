@@ -0,0 +1,147 @@
+package com.sumavision.launcher.task.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>功能描述：对数分桶的并发直方图，记录时不分配对象<p/>
+ * <p>每个2的幂区间再均分为8个桶，小于8的值各占一个桶，相对误差不超过12.5%。
+ * 只接受非负值，负值按0记录<p/>
+ * @author chen qi
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值
+     * @param value 值
+     */
+    public void record(long value) {
+        if(value < 0){
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(value);
+        long current;
+        while(value > (current = max.get())){
+            if(max.compareAndSet(current, value)){
+                break;
+            }
+        }
+    }
+
+    /**
+     * 复制当前计数，复制期间的并发记录可能只计入部分
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; ++i){
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    static int bucketOf(long value) {
+        if(value < SUB_COUNT){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long upperBoundOf(int bucket) {
+        if(bucket < SUB_COUNT){
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * 直方图快照
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0D : (double) sum / count;
+        }
+
+        /**
+         * 百分位值，返回所在桶的最大值(不超过记录的最大值)
+         * @param percentile 0到100
+         */
+        public long getValueAtPercentile(double percentile) {
+            if(count == 0){
+                return 0L;
+            }
+            long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0D), 100D) / 100D);
+            if(rank < 1){
+                rank = 1;
+            }
+            long seen = 0;
+            for(int i = 0; i < counts.length; ++i){
+                seen += counts[i];
+                if(seen >= rank){
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 不大于value的记录数
+         */
+        public long getCountAtOrBelow(long value) {
+            if(value < 0){
+                return 0L;
+            }
+            int last = bucketOf(value);
+            //value不是桶的上界时，该桶只有部分记录不大于value，按不计入处理
+            if(upperBoundOf(last) != value){
+                --last;
+            }
+            long seen = 0;
+            for(int i = 0; i <= last; ++i){
+                seen += counts[i];
+            }
+            return seen;
+        }
+    }
+}